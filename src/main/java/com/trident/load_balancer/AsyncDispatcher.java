@@ -0,0 +1,42 @@
+package com.trident.load_balancer;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.List;
+
+/**
+ * Queues posted events in a bounded {@link MpmcArrayQueue} and delivers them from a pool of worker threads, so the
+ * posting thread only pays for an enqueue. What happens when the queue is full is decided by the
+ * {@link BackpressurePolicy}. Events are delivered in the order they were queued only when there is a single worker.
+ */
+final class AsyncDispatcher extends WorkerPoolDispatcher {
+    static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    AsyncDispatcher(int queueCapacity, int workerThreads, @NonNull BackpressurePolicy backpressurePolicy) {
+        super(1, queueCapacity, backpressurePolicy);
+        startWorkers("async-dispatcher-%d", workerThreads);
+    }
+
+    @Override
+    LanePoller newPoller() {
+        return () -> pollLane(0);
+    }
+
+    @Override
+    void dispatch(@NonNull Object event, @NonNull Subscriber[] subscribers) {
+        enqueue(0, new QueuedEvent(event, subscribers, false));
+    }
+
+    @Override
+    void dispatchBatch(@NonNull List<?> events, @NonNull Subscriber[] subscribers) {
+        enqueue(0, new QueuedEvent(events, subscribers, true));
+    }
+
+    int getQueueCapacity() {
+        return laneCapacity(0);
+    }
+
+    long getDeliveredCount() {
+        return deliveredCount(0);
+    }
+}
@@ -0,0 +1,23 @@
+package com.trident.load_balancer;
+
+/**
+ * What a bounded dispatcher does with a post when its queue is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Wait on the posting thread until space frees up.
+     */
+    BLOCK,
+    /**
+     * Discard the event being posted.
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest queued event to make room for the one being posted.
+     */
+    DROP_OLDEST,
+    /**
+     * Deliver the event on the posting thread, bypassing the queue.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,64 @@
+package com.trident.load_balancer;
+
+import org.springframework.util.SerializationUtils;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the values of a {@link MessageLog} into the bytes stored in its records and back. Implementations must be
+ * thread-safe, as one instance serves every append and lookup of a log.
+ */
+public interface Codec<V> {
+    byte[] encode(V value);
+
+    /**
+     * @param bytes exactly the bytes {@link #encode} returned for the value. They may be a slice of a memory-mapped
+     *              segment, so they must not be kept after this returns.
+     */
+    V decode(ByteBuffer bytes) throws IOException;
+
+    /**
+     * The default codec of a log, for values of any serializable type.
+     */
+    static <V extends Serializable> Codec<V> javaSerialization() {
+        return new JavaSerialization<>();
+    }
+
+    static Codec<String> utf8() {
+        return Utf8.INSTANCE;
+    }
+
+    final class JavaSerialization<V extends Serializable> implements Codec<V> {
+        @Override
+        public byte[] encode(V value) {
+            byte[] bytes = SerializationUtils.serialize(value);
+            if (bytes == null) {
+                throw new IllegalArgumentException("Could not serialize value " + value);
+            }
+            return bytes;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V decode(ByteBuffer bytes) throws IOException {
+            return (V) RecordFormat.readObject(bytes);
+        }
+    }
+
+    final class Utf8 implements Codec<String> {
+        private static final Utf8 INSTANCE = new Utf8();
+
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer bytes) {
+            return StandardCharsets.UTF_8.decode(bytes).toString();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.trident.load_balancer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and pause times of the compactions of one message log.
+ */
+final class CompactionMetrics {
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder recordsCopied = new LongAdder();
+    private final LongAdder tombstonesDropped = new LongAdder();
+    private final LongAdder bytesCompacted = new LongAdder();
+    private final LongAdder bytesReclaimed = new LongAdder();
+    private final LongAdder compactingNanos = new LongAdder();
+    private final LatencyHistogram duration = new LatencyHistogram();
+    private final LatencyHistogram pause = new LatencyHistogram();
+
+    void recordPause(long nanos) {
+        pause.record(nanos);
+    }
+
+    void recordCompaction(long nanos, long copied, long dropped, long bytesIn, long bytesOut) {
+        compactions.increment();
+        recordsCopied.add(copied);
+        tombstonesDropped.add(dropped);
+        bytesCompacted.add(bytesIn);
+        bytesReclaimed.add(bytesIn - bytesOut);
+        compactingNanos.add(nanos);
+        duration.record(nanos);
+    }
+
+    CompactionStats toStats() {
+        long compacted = bytesCompacted.sum();
+        double compactingSeconds = (double) compactingNanos.sum() / TimeUnit.SECONDS.toNanos(1);
+        return new CompactionStats(
+                compactions.sum(),
+                recordsCopied.sum(),
+                tombstonesDropped.sum(),
+                compacted,
+                bytesReclaimed.sum(),
+                compactingSeconds > 0 ? compacted / compactingSeconds : 0.0,
+                duration.snapshot(),
+                pause.snapshot()
+        );
+    }
+}
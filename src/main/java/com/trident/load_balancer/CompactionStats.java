@@ -0,0 +1,49 @@
+package com.trident.load_balancer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time view of the compactions a {@link MessageLog} has run.
+ */
+@Data
+@AllArgsConstructor
+public class CompactionStats {
+    private final long compactions;
+
+    /**
+     * Live records copied into new segments.
+     */
+    private final long recordsCopied;
+
+    /**
+     * Tombstones dropped, along with every older record of their keys.
+     */
+    private final long tombstonesDropped;
+
+    /**
+     * Size of the segments compacted.
+     */
+    private final long bytesCompacted;
+
+    /**
+     * Size of the segments compacted minus the size of the segments that replaced them.
+     */
+    private final long bytesReclaimed;
+
+    /**
+     * Bytes compacted per second spent compacting.
+     */
+    private final double bytesPerSecond;
+
+    /**
+     * Wall-clock time of each compaction, during which appends and lookups proceed.
+     */
+    private final LatencyStats duration;
+
+    /**
+     * Time appends and lookups were held up, while a compaction sealed the active segment or swapped in the new
+     * segments.
+     */
+    private final LatencyStats pause;
+}
@@ -8,4 +8,8 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface ConcurrentEventsAllowed {
+    /**
+     * The most deliveries of this method that may run at once; further deliveries wait for a running one to finish.
+     */
+    int maxConcurrency() default Integer.MAX_VALUE;
 }
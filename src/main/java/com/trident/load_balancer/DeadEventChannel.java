@@ -0,0 +1,73 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for events posted to a bus with no subscribers. Dead events are counted per event class, and every
+ * {@code sampleRate}-th one of a class, starting with the first, is kept as that class's sample and handed to
+ * {@link DeadEvent} subscribers if there are any. Dead events are dispatched directly instead of being posted again, so
+ * an unsampled dead event costs a map lookup and a counter increment.
+ */
+@Slf4j
+final class DeadEventChannel {
+    private final EventBus eventBus;
+    private final Map<Class<?>, DeadEventCounter> countersByEventClass = Maps.newConcurrentMap();
+    private volatile int sampleRate = 1;
+
+    DeadEventChannel(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    void setSampleRate(int sampleRate) {
+        Preconditions.checkArgument(sampleRate > 0, "Dead event sample rate must be positive");
+        this.sampleRate = sampleRate;
+    }
+
+    void record(Object event) {
+        if (event instanceof DeadEvent) {
+            return;
+        }
+        Class<?> eventClass = event.getClass();
+        DeadEventCounter counter = countersByEventClass.get(eventClass);
+        if (counter == null) {
+            counter = countersByEventClass.computeIfAbsent(eventClass, k -> new DeadEventCounter());
+        }
+        long count = counter.count.incrementAndGet();
+        if (count == 1) {
+            log.warn("Event bus " + eventBus.getName() + " has no subscribers for " + eventClass.getName()
+                    + "; further events of this class are only counted");
+        }
+        if ((count - 1) % sampleRate == 0) {
+            counter.lastSample = event;
+            dispatchDeadEvent(event);
+        }
+    }
+
+    private void dispatchDeadEvent(Object event) {
+        Subscriber[] subscribers = eventBus.getSubscriptionRegistry().getSubscribers(DeadEvent.class);
+        if (subscribers.length > 0) {
+            eventBus.getDispatcher().dispatch(new DeadEvent(eventBus, event), subscribers);
+        }
+    }
+
+    ImmutableList<DeadEventStats> getStats() {
+        ImmutableList.Builder<DeadEventStats> stats = ImmutableList.builder();
+        countersByEventClass.forEach((eventClass, counter) -> stats.add(new DeadEventStats(
+                eventClass,
+                counter.count.get(),
+                counter.lastSample
+        )));
+        return stats.build();
+    }
+
+    private static final class DeadEventCounter {
+        private final AtomicLong count = new AtomicLong();
+        private volatile Object lastSample;
+    }
+}
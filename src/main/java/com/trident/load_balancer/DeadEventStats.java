@@ -0,0 +1,21 @@
+package com.trident.load_balancer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time view of the events of one class posted while nothing subscribed to them. A steadily growing count
+ * usually means a listener was never registered or subscribes to the wrong type.
+ */
+@Data
+@AllArgsConstructor
+public class DeadEventStats {
+    private final Class<?> eventClass;
+
+    private final long count;
+
+    /**
+     * The most recently sampled dead event of this class.
+     */
+    private final Object lastSample;
+}
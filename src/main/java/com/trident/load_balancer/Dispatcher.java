@@ -1,11 +1,8 @@
 package com.trident.load_balancer;
 
-import com.google.common.collect.Queues;
-import lombok.AllArgsConstructor;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
-import java.util.Iterator;
-import java.util.Queue;
+import java.util.List;
 
 abstract class Dispatcher {
 
@@ -19,7 +16,33 @@ abstract class Dispatcher {
                 dispatcher = new PerThreadQueueDispatcher();
                 break;
             case ASYNC:
-                dispatcher = new AsyncDispatcher();
+                dispatcher = new AsyncDispatcher(
+                        AsyncDispatcher.DEFAULT_QUEUE_CAPACITY,
+                        Runtime.getRuntime().availableProcessors(),
+                        BackpressurePolicy.DROP_OLDEST
+                );
+                break;
+            case RING_BUFFER:
+                dispatcher = new RingBufferDispatcher(
+                        RingBufferDispatcher.DEFAULT_BUFFER_SIZE,
+                        RingBufferDispatcher.ClaimStrategy.MULTI_PRODUCER,
+                        RingBufferDispatcher.WaitStrategy.BLOCKING
+                );
+                break;
+            case KEYED:
+                dispatcher = new KeyedDispatcher(
+                        Runtime.getRuntime().availableProcessors(),
+                        AsyncDispatcher.DEFAULT_QUEUE_CAPACITY,
+                        BackpressurePolicy.BLOCK
+                );
+                break;
+            case PRIORITY:
+                dispatcher = new PriorityDispatcher(
+                        AsyncDispatcher.DEFAULT_QUEUE_CAPACITY,
+                        Runtime.getRuntime().availableProcessors(),
+                        BackpressurePolicy.BLOCK,
+                        PriorityDispatcher.DEFAULT_STARVATION_LIMIT
+                );
                 break;
             default:
                 throw new IllegalStateException("Unsupported dispatcher type: " + dispatcherType);
@@ -27,70 +50,187 @@ abstract class Dispatcher {
         return dispatcher;
     }
 
-    abstract void dispatch(Object event, Iterator<Subscriber> subscriberIterator);
+    /**
+     * Hands {@code eventOrBatch} to {@code subscriber}; when {@code batch} is true it is a list passed to
+     * {@link #dispatchBatch}.
+     */
+    static void deliver(Subscriber subscriber, Object eventOrBatch, boolean batch) {
+        if (batch) {
+            subscriber.dispatchBatch((List<?>) eventOrBatch);
+        } else {
+            subscriber.dispatchEvent(eventOrBatch);
+        }
+    }
 
-    enum Type {IMMEDIATE, PER_THREAD, ASYNC}
+    abstract void dispatch(Object event, Subscriber[] subscribers);
 
-    @AllArgsConstructor
-    private static final class Event {
-        private final Object event;
-        private final Iterator<Subscriber> subscriberIterator;
+    /**
+     * Dispatches events of the same concrete class, all of which have {@code subscribers}, as one unit so that each
+     * subscriber gets a single executor hand-off for the whole batch.
+     */
+    void dispatchBatch(List<?> events, Subscriber[] subscribers) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.dispatchBatch(events);
+        }
     }
 
-    @AllArgsConstructor
-    private static final class EventSubscriberPair {
-        private final Object event;
-        private final Subscriber subscriber;
+    /**
+     * @return the number of events handed to this dispatcher that it has not passed to subscribers yet. Dispatchers that
+     * deliver on the posting thread report 0.
+     */
+    int getQueueDepth() {
+        return 0;
     }
 
-    private static final class AsyncDispatcher extends Dispatcher {
-        private final Queue<EventSubscriberPair> queue = Queues.newConcurrentLinkedQueue();
+    /**
+     * @return the number of events this dispatcher discarded because its queue was full. Unbounded dispatchers report 0.
+     */
+    long getDroppedCount() {
+        return 0;
+    }
 
-        @Override
-        void dispatch(@NonNull Object event, @NonNull Iterator<Subscriber> subscriberIterator) {
-            subscriberIterator.forEachRemaining(sub -> queue.add(new EventSubscriberPair(event, sub)));
-            queue.forEach(eventSubscriberPair -> eventSubscriberPair.subscriber.dispatchEvent(eventSubscriberPair.event));
-        }
+    /**
+     * @return the number of events this dispatcher delivered on the posting thread because its queue was full.
+     */
+    long getCallerRunsCount() {
+        return 0;
+    }
+
+    /**
+     * Releases any threads owned by this dispatcher.
+     */
+    void stop() {
     }
 
+    enum Type {IMMEDIATE, PER_THREAD, ASYNC, RING_BUFFER, KEYED, PRIORITY}
+
     private static final class ImmediateDispatcher extends Dispatcher {
         private static final ImmediateDispatcher INSTANCE = new ImmediateDispatcher();
 
         @Override
-        void dispatch(@NonNull Object event, @NonNull Iterator<Subscriber> subscriberIterator) {
-            while (subscriberIterator.hasNext()) {
-                subscriberIterator.next().dispatchEvent(event);
+        void dispatch(@NonNull Object event, @NonNull Subscriber[] subscribers) {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.dispatchEvent(event);
             }
         }
     }
 
+    /**
+     * Queues events per posting thread so that events posted reentrantly by a subscriber are delivered after the event
+     * being delivered, in the order they were posted. Queue nodes are pooled per thread and the thread-local state is
+     * kept for the life of the thread, so steady-state posting does not allocate.
+     */
     private static final class PerThreadQueueDispatcher extends Dispatcher {
+        private static final int MAX_POOLED_NODES = 64;
 
-        private final ThreadLocal<Queue<Event>> eventQueue = ThreadLocal.withInitial(Queues::newArrayDeque);
-        private final ThreadLocal<Boolean> dispatching = ThreadLocal.withInitial(() -> Boolean.FALSE);
+        private final ThreadLocal<ThreadQueue> threadQueue = ThreadLocal.withInitial(ThreadQueue::new);
+
+        @Override
+        void dispatch(@NonNull Object event, @NonNull Subscriber[] subscribers) {
+            enqueueAndDrain(event, subscribers, false);
+        }
 
-        /**
-         * Allows events to be added to the event queue reentrantly but dispatches them in the order they were received.
-         */
         @Override
-        void dispatch(@NonNull Object event, @NonNull Iterator<Subscriber> subscriberIterator) {
-            Queue<Event> events = eventQueue.get();
-            events.add(new Event(event, subscriberIterator));
-            if (!dispatching.get()) {
-                dispatching.set(true);
-                try {
-                    Event nextEvent;
-                    while ((nextEvent = events.poll()) != null) {
-                        while (nextEvent.subscriberIterator.hasNext()) {
-                            subscriberIterator.next().dispatchEvent(nextEvent.event);
-                        }
+        void dispatchBatch(@NonNull List<?> events, @NonNull Subscriber[] subscribers) {
+            enqueueAndDrain(events, subscribers, true);
+        }
+
+        private void enqueueAndDrain(Object eventOrBatch, Subscriber[] subscribers, boolean batch) {
+            ThreadQueue queue = threadQueue.get();
+            queue.add(eventOrBatch, subscribers, batch);
+            if (queue.dispatching) {
+                return;
+            }
+            queue.dispatching = true;
+            try {
+                EventNode node;
+                while ((node = queue.poll()) != null) {
+                    Object nextEvent = node.eventOrBatch;
+                    Subscriber[] nextSubscribers = node.subscribers;
+                    boolean nextIsBatch = node.batch;
+                    queue.release(node);
+                    for (Subscriber subscriber : nextSubscribers) {
+                        deliver(subscriber, nextEvent, nextIsBatch);
                     }
-                } finally {
-                    dispatching.remove();
-                    eventQueue.remove();
                 }
+            } finally {
+                queue.dispatching = false;
+                queue.clear();
             }
         }
 
+        private static final class EventNode {
+            private Object eventOrBatch;
+            private Subscriber[] subscribers;
+            private boolean batch;
+            private EventNode next;
+        }
+
+        /**
+         * Singly linked FIFO of events plus a free list of nodes to reuse. Only ever touched by its owning thread.
+         */
+        private static final class ThreadQueue {
+            private EventNode head;
+            private EventNode tail;
+            private EventNode free;
+            private int freeCount;
+            private boolean dispatching;
+
+            private void add(Object eventOrBatch, Subscriber[] subscribers, boolean batch) {
+                EventNode node = acquire();
+                node.eventOrBatch = eventOrBatch;
+                node.subscribers = subscribers;
+                node.batch = batch;
+                if (tail == null) {
+                    head = node;
+                } else {
+                    tail.next = node;
+                }
+                tail = node;
+            }
+
+            private EventNode poll() {
+                EventNode node = head;
+                if (node != null) {
+                    head = node.next;
+                    if (head == null) {
+                        tail = null;
+                    }
+                    node.next = null;
+                }
+                return node;
+            }
+
+            private EventNode acquire() {
+                EventNode node = free;
+                if (node == null) {
+                    return new EventNode();
+                }
+                free = node.next;
+                node.next = null;
+                freeCount--;
+                return node;
+            }
+
+            private void release(EventNode node) {
+                node.eventOrBatch = null;
+                node.subscribers = null;
+                if (freeCount < MAX_POOLED_NODES) {
+                    node.next = free;
+                    free = node;
+                    freeCount++;
+                }
+            }
+
+            /**
+             * Drops events left behind when a delivery threw out of the drain loop.
+             */
+            private void clear() {
+                EventNode node;
+                while ((node = poll()) != null) {
+                    release(node);
+                }
+            }
+        }
     }
 }
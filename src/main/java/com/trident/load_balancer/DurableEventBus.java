@@ -0,0 +1,413 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * An event bus that appends every serializable event it dispatches to a {@link MessageLog} under a sequence number
+ * before handing it to subscribers. For every subscriber it tracks the consumer offset: the sequence number up to which
+ * the subscriber has been handed every event it subscribes to. Offsets are written to the same log every
+ * {@code offsetCommitInterval} deliveries and on {@link #stop()}.
+ * <p>
+ * A bus opened on a log written by an earlier one continues its sequence, and every listener it registers is first
+ * handed the logged events after its subscribers' committed offsets, so events that had not been delivered before a
+ * crash are delivered at least once. Subscribers are identified across restarts by listener class and method.
+ * <p>
+ * Events up to the lowest committed offset of every consumer the log has ever had, registered with this bus or not, are
+ * tombstoned in the background so compaction can drop them.
+ */
+@Slf4j
+public class DurableEventBus extends EventBus {
+    static final int DEFAULT_OFFSET_COMMIT_INTERVAL = 1024;
+
+    private static final String EVENT_KEY_PREFIX = "event-";
+
+    private static final String OFFSET_KEY_PREFIX = "offset-";
+
+    private static final String LOW_WATERMARK_KEY = "low-watermark";
+
+    private static final String CONSUMERS_KEY = "consumers";
+
+    /**
+     * Concurrent posters log their events out of sequence order, so a crash can leave gaps below the last logged event.
+     */
+    private static final int MAX_SEQUENCE_GAP = 1024;
+
+    private final MessageLog<Serializable> messageLog;
+    private final int offsetCommitInterval;
+    /**
+     * Sequence numbers are assigned and handed to consumers as in flight under this lock, so they are assigned to every
+     * consumer in order. The event is logged after the lock is released, so concurrent posters share a group commit.
+     */
+    private final Object appendLock = new Object();
+    private final AtomicLong lastSequence;
+    private final Map<Subscriber, ConsumerOffset> consumerOffsets = new MapMaker().weakKeys().makeMap();
+    private final AtomicInteger acknowledgedSinceCommit = new AtomicInteger();
+    private final Object commitLock = new Object();
+    /**
+     * The committed offset of every consumer the log has had, including those not registered with this bus. Guarded by
+     * {@code commitLock}.
+     */
+    private final Map<String, Long> committedOffsets = Maps.newHashMap();
+    private final ExecutorService trimmer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("durable-bus-trimmer-%d")
+            .setDaemon(true)
+            .build());
+    private final AtomicLong trimPoint;
+    private final AtomicBoolean trimScheduled = new AtomicBoolean();
+    private final Object trimLock = new Object();
+    /**
+     * Every event up to this sequence number has been tombstoned. Guarded by {@code trimLock}.
+     */
+    private long lowWatermark;
+
+    public DurableEventBus(String identifier, MessageLog<Serializable> messageLog) {
+        this(identifier, MoreExecutors.directExecutor(), Dispatcher.getInstance(Dispatcher.Type.PER_THREAD), messageLog, DEFAULT_OFFSET_COMMIT_INTERVAL);
+    }
+
+    DurableEventBus(String identifier, Executor executor, Dispatcher dispatcher, MessageLog<Serializable> messageLog, int offsetCommitInterval) {
+        super(identifier, executor, LoggingHandler.INSTANCE, dispatcher);
+        Preconditions.checkArgument(offsetCommitInterval > 0, "Offset commit interval must be positive");
+        this.messageLog = messageLog;
+        this.offsetCommitInterval = offsetCommitInterval;
+        this.lowWatermark = readLong(LOW_WATERMARK_KEY, 0L);
+        this.trimPoint = new AtomicLong(lowWatermark);
+        this.lastSequence = new AtomicLong(findLastSequence(lowWatermark));
+        readConsumerIds().forEach(this::readOffset);
+    }
+
+    /**
+     * Looks for logged keys rather than readable events, so an event that no longer deserializes still keeps its
+     * sequence number from being reused.
+     */
+    private long findLastSequence(long after) {
+        long last = after;
+        for (long sequence = after + 1; sequence <= last + MAX_SEQUENCE_GAP; sequence++) {
+            if (messageLog.containsKey(EVENT_KEY_PREFIX + sequence)) {
+                last = sequence;
+            }
+        }
+        return last;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<String> readConsumerIds() {
+        MessageLog.Record<Serializable> record = messageLog.get(CONSUMERS_KEY);
+        return record == null || record.isTombstone() ? ImmutableSet.of() : (Collection<String>) record.getVal();
+    }
+
+    /**
+     * Posts the events one by one, so that each is logged under its own sequence number.
+     */
+    @Override
+    public void postAll(Collection<?> events) {
+        events.forEach(this::post);
+    }
+
+    @Override
+    Object prepareForDispatch(Object event, Subscriber[] subscribers) {
+        if (!(event instanceof Serializable)) {
+            return event;
+        }
+        long sequence;
+        synchronized (appendLock) {
+            sequence = lastSequence.incrementAndGet();
+            for (Subscriber subscriber : subscribers) {
+                consumerFor(subscriber, sequence - 1).assign(sequence);
+            }
+        }
+        String key = EVENT_KEY_PREFIX + sequence;
+        try {
+            MessageLog.awaitWritten(messageLog.appendAsync(key, (Serializable) event), key);
+        } catch (IOException e) {
+            for (Subscriber subscriber : subscribers) {
+                acknowledge(subscriber, sequence);
+            }
+            throw new UncheckedIOException("Could not log event " + event, e);
+        }
+        return SequencedEvent.of(sequence, event);
+    }
+
+    @Override
+    void acknowledgeDelivery(Subscriber subscriber, long sequence) {
+        acknowledge(subscriber, sequence);
+        if (acknowledgedSinceCommit.incrementAndGet() >= offsetCommitInterval) {
+            acknowledgedSinceCommit.set(0);
+            commitOffsets();
+        }
+    }
+
+    private void acknowledge(Subscriber subscriber, long sequence) {
+        ConsumerOffset consumerOffset = consumerOffsets.get(subscriber);
+        if (consumerOffset != null) {
+            consumerOffset.acknowledge(sequence);
+        }
+    }
+
+    /**
+     * Replays to each added subscriber the logged events of its event type after its committed offset, or records its
+     * current offset if it has never been committed.
+     */
+    @Override
+    void subscribersAdded(Multimap<Class<?>, Subscriber> addedSubscribers) {
+        super.subscribersAdded(addedSubscribers);
+        addedSubscribers.forEach((eventType, subscriber) -> {
+            ConsumerOffset consumerOffset;
+            synchronized (appendLock) {
+                consumerOffset = consumerFor(subscriber, lastSequence.get());
+            }
+            Long committedOffset = readOffset(consumerOffset.consumerId);
+            if (committedOffset == null) {
+                commitOffset(consumerOffset.consumerId, consumerOffset.startedAfter);
+            } else {
+                replay(subscriber, eventType, consumerOffset, committedOffset);
+            }
+        });
+    }
+
+    private void replay(Subscriber subscriber, Class<?> eventType, ConsumerOffset consumerOffset, long committedOffset) {
+        List<SequencedEvent> missedEvents = LongStream.rangeClosed(committedOffset + 1, consumerOffset.startedAfter)
+                .mapToObj(sequence -> SequencedEvent.of(sequence, readEvent(sequence)))
+                .filter(sequencedEvent -> eventType.isInstance(sequencedEvent.getEvent()))
+                .collect(Collectors.toList());
+        if (missedEvents.isEmpty()) {
+            return;
+        }
+        log.info("Replaying " + missedEvents.size() + " logged events to " + consumerOffset.consumerId);
+        missedEvents.forEach(missedEvent -> consumerOffset.assign(missedEvent.getSequence()));
+        missedEvents.forEach(subscriber::dispatchEvent);
+    }
+
+    @Override
+    void subscribersRemoved(Multimap<Class<?>, Subscriber> removedSubscribers) {
+        super.subscribersRemoved(removedSubscribers);
+        removedSubscribers.values().forEach(consumerOffsets::remove);
+    }
+
+    /**
+     * @param startedAfter the last sequence number logged before the subscriber was seen, should it be new. Must be
+     *                     called under {@code appendLock}.
+     */
+    private ConsumerOffset consumerFor(Subscriber subscriber, long startedAfter) {
+        return consumerOffsets.computeIfAbsent(subscriber, s -> new ConsumerOffset(consumerIdOf(s), startedAfter));
+    }
+
+    private static String consumerIdOf(Subscriber subscriber) {
+        return subscriber.getTarget().getClass().getName()
+                + "#" + subscriber.getMethod().getName()
+                + "(" + subscriber.getMethod().getParameterTypes()[0].getName() + ")";
+    }
+
+    /**
+     * Writes the offset of every subscriber whose offset moved since the last commit, then has the events up to the
+     * lowest committed offset of every known consumer tombstoned in the background.
+     */
+    public void commitOffsets() {
+        synchronized (commitLock) {
+            Map<String, Long> offsets = Maps.newHashMap();
+            consumerOffsets.values().forEach(consumerOffset -> offsets.merge(consumerOffset.consumerId, consumerOffset.offset(), Math::min));
+            offsets.entrySet().removeIf(offset -> offset.getValue().equals(committedOffsets.get(offset.getKey())));
+            writeOffsets(offsets);
+            committedOffsets.values().stream().min(Long::compare).ifPresent(trimPoint::set);
+        }
+        scheduleTrim();
+    }
+
+    /**
+     * Drops a consumer that will not come back, so its committed offset no longer keeps events from being trimmed. Its
+     * offset is tombstoned and it is removed from the list of known consumers.
+     *
+     * @param consumerId the listener class name, subscriber method name and event type, as in
+     *                   {@code com.example.Listener#onEvent(java.lang.String)}.
+     */
+    public void forgetConsumer(String consumerId) {
+        Preconditions.checkArgument(
+                consumerOffsets.values().stream().noneMatch(consumerOffset -> consumerOffset.consumerId.equals(consumerId)),
+                "Consumer " + consumerId + " is still registered"
+        );
+        synchronized (commitLock) {
+            if (readOffset(consumerId) == null) {
+                return;
+            }
+            TreeSet<String> consumerIds = Sets.newTreeSet(committedOffsets.keySet());
+            consumerIds.remove(consumerId);
+            Map<String, Serializable> records = Maps.newLinkedHashMap();
+            records.put(CONSUMERS_KEY, consumerIds);
+            records.put(OFFSET_KEY_PREFIX + consumerId, null);
+            try {
+                MessageLog.awaitWritten(messageLog.appendAllAsync(records), "forgotten consumer " + consumerId);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not forget consumer " + consumerId, e);
+            }
+            committedOffsets.remove(consumerId);
+            committedOffsets.values().stream().min(Long::compare).ifPresent(trimPoint::set);
+        }
+        scheduleTrim();
+    }
+
+    private void commitOffset(String consumerId, long offset) {
+        synchronized (commitLock) {
+            writeOffsets(ImmutableMap.of(consumerId, offset));
+        }
+    }
+
+    /**
+     * Writes the offsets in one batch, preceded by the list of known consumers if any of them is new. Must be called
+     * under {@code commitLock}.
+     */
+    private void writeOffsets(Map<String, Long> offsets) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        Map<String, Serializable> records = Maps.newLinkedHashMap();
+        if (!committedOffsets.keySet().containsAll(offsets.keySet())) {
+            TreeSet<String> consumerIds = Sets.newTreeSet(committedOffsets.keySet());
+            consumerIds.addAll(offsets.keySet());
+            records.put(CONSUMERS_KEY, consumerIds);
+        }
+        offsets.forEach((consumerId, offset) -> records.put(OFFSET_KEY_PREFIX + consumerId, offset));
+        try {
+            MessageLog.awaitWritten(messageLog.appendAllAsync(records), "offsets " + offsets);
+            committedOffsets.putAll(offsets);
+        } catch (IOException e) {
+            log.warn("Could not commit offsets " + offsets, e);
+        }
+    }
+
+    private void scheduleTrim() {
+        if (!trimScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            trimmer.execute(() -> {
+                trimScheduled.set(false);
+                trimUpTo(trimPoint.get());
+            });
+        } catch (RejectedExecutionException e) {
+            // The bus is stopping, and stop() trims up to the final trim point itself
+            trimScheduled.set(false);
+        }
+    }
+
+    /**
+     * Tombstones every event up to {@code sequence} and moves the low watermark there, all in one batch.
+     */
+    private void trimUpTo(long sequence) {
+        synchronized (trimLock) {
+            if (sequence <= lowWatermark) {
+                return;
+            }
+            Map<String, Serializable> tombstones = Maps.newLinkedHashMap();
+            for (long trimmed = lowWatermark + 1; trimmed <= sequence; trimmed++) {
+                tombstones.put(EVENT_KEY_PREFIX + trimmed, null);
+            }
+            tombstones.put(LOW_WATERMARK_KEY, sequence);
+            try {
+                MessageLog.awaitWritten(messageLog.appendAllAsync(tombstones), "tombstones up to " + sequence);
+                lowWatermark = sequence;
+            } catch (IOException e) {
+                log.warn("Could not trim logged events up to " + sequence, e);
+            }
+        }
+    }
+
+    private Long readOffset(String consumerId) {
+        synchronized (commitLock) {
+            Long offset = committedOffsets.get(consumerId);
+            if (offset == null) {
+                MessageLog.Record<Serializable> record = messageLog.get(OFFSET_KEY_PREFIX + consumerId);
+                if (record != null && !record.isTombstone()) {
+                    offset = ((Number) record.getVal()).longValue();
+                    committedOffsets.put(consumerId, offset);
+                }
+            }
+            return offset;
+        }
+    }
+
+    private Serializable readEvent(long sequence) {
+        MessageLog.Record<Serializable> record = messageLog.get(EVENT_KEY_PREFIX + sequence);
+        return record == null ? null : record.getVal();
+    }
+
+    private long readLong(String key, long defaultValue) {
+        MessageLog.Record<Serializable> record = messageLog.get(key);
+        return record == null || record.isTombstone() ? defaultValue : ((Number) record.getVal()).longValue();
+    }
+
+    long getLastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * Commits consumer offsets, trims the events every known consumer has been handed and stops the dispatcher.
+     */
+    @Override
+    public void stop() {
+        trimmer.shutdown();
+        commitOffsets();
+        trimUpTo(trimPoint.get());
+        super.stop();
+    }
+
+    private static final class ConsumerOffset {
+        private final String consumerId;
+        /**
+         * The last sequence number logged before this subscriber was registered; later events are handed to it as they
+         * are posted.
+         */
+        private final long startedAfter;
+        private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+        private final AtomicLong highestAssigned;
+
+        ConsumerOffset(String consumerId, long startedAfter) {
+            this.consumerId = consumerId;
+            this.startedAfter = startedAfter;
+            this.highestAssigned = new AtomicLong(startedAfter);
+        }
+
+        void assign(long sequence) {
+            inFlight.add(sequence);
+            highestAssigned.accumulateAndGet(sequence, Math::max);
+        }
+
+        void acknowledge(long sequence) {
+            inFlight.remove(sequence);
+        }
+
+        /**
+         * @return the highest sequence number such that every event up to it assigned to this subscriber was delivered.
+         */
+        long offset() {
+            long assigned = highestAssigned.get();
+            Long oldestInFlight = inFlight.ceiling(Long.MIN_VALUE);
+            return oldestInFlight == null ? assigned : Math.min(oldestInFlight - 1, assigned);
+        }
+    }
+}
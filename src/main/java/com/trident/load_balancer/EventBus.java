@@ -1,34 +1,96 @@
 package com.trident.load_balancer;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.MoreExecutors;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.lang.reflect.Method;
-import java.util.Iterator;
-import java.util.concurrent.ExecutionException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 @Slf4j
 @Data
-@AllArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
 public class EventBus {
     private final String name;
     private final Executor executor;
     private final SubscriptionExceptionHandler subscriptionExceptionHandler;
     private final Dispatcher dispatcher;
+    /**
+     * Null unless the bus was created with sticky events enabled.
+     */
+    @Getter(AccessLevel.NONE)
+    private final StickyEventCache stickyEventCache;
+    /**
+     * True if the bus created its executor, an {@link ExecutorService}, and so shuts it down on {@link #stop()}.
+     */
+    @Getter(AccessLevel.NONE)
+    private final boolean ownsExecutor;
     private final SubscriptionRegistry subscriptionRegistry = new SubscriptionRegistry(this);
+    @Getter(AccessLevel.NONE)
+    private final DeadEventChannel deadEventChannel = new DeadEventChannel(this);
+    @Getter(AccessLevel.PACKAGE)
+    private final EventBusMetrics metrics = new EventBusMetrics();
+
+    public EventBus(String name, Executor executor, SubscriptionExceptionHandler subscriptionExceptionHandler, Dispatcher dispatcher) {
+        this(name, executor, subscriptionExceptionHandler, dispatcher, null, false);
+    }
 
     public EventBus(String identifier) {
         this(identifier, MoreExecutors.directExecutor(), LoggingHandler.INSTANCE, Dispatcher.getInstance(Dispatcher.Type.PER_THREAD));
     }
 
+    public EventBus(String identifier, Dispatcher dispatcher) {
+        this(identifier, MoreExecutors.directExecutor(), LoggingHandler.INSTANCE, dispatcher);
+    }
+
     public EventBus(SubscriptionExceptionHandler exceptionHandler) {
         this("default", MoreExecutors.directExecutor(), exceptionHandler, Dispatcher.getInstance(Dispatcher.Type.PER_THREAD));
     }
 
+    /**
+     * @return a bus that runs every delivery on its own virtual thread, for subscribers that block on I/O.
+     */
+    public static EventBus withVirtualThreads(String identifier) {
+        return new EventBus(
+                identifier,
+                SubscriberExecutors.virtualThreadPerDelivery(),
+                LoggingHandler.INSTANCE,
+                Dispatcher.getInstance(Dispatcher.Type.PER_THREAD),
+                null,
+                true
+        );
+    }
+
+    /**
+     * @return a bus that remembers the latest event posted per event class, and per partition key for
+     * {@link KeyedEvent}s, and replays those events to every listener it registers afterwards. At most
+     * {@code maxStickyEvents} events are kept, evicting the least recently posted first.
+     */
+    public static EventBus withStickyEvents(String identifier, int maxStickyEvents) {
+        return new EventBus(
+                identifier,
+                MoreExecutors.directExecutor(),
+                LoggingHandler.INSTANCE,
+                Dispatcher.getInstance(Dispatcher.Type.PER_THREAD),
+                new StickyEventCache(maxStickyEvents),
+                false
+        );
+    }
+
     void handleInvocationException(@NonNull Throwable cause, @NonNull SubscriberExceptionContext subscriberExceptionContext) {
         try {
             subscriptionExceptionHandler.handleException(cause, subscriberExceptionContext);
@@ -37,34 +99,145 @@ public class EventBus {
         }
     }
 
+    /**
+     * Registers all of {@code listeners} at once, which is cheaper than registering them one by one when many of them
+     * subscribe to the same event type.
+     */
     public void register(Object... listeners) {
-        for (Object listener : listeners) {
-            register(listener);
-        }
+        subscribersAdded(subscriptionRegistry.registerAll(Arrays.asList(listeners)));
     }
 
     public void register(Object listener) {
-        try {
-            subscriptionRegistry.register(listener);
-        } catch (ExecutionException e) {
-            throw new Error("Could not register listener!", e);
+        subscribersAdded(subscriptionRegistry.register(listener));
+    }
+
+    /**
+     * Called after registration with the subscribers that were added, by event type.
+     */
+    void subscribersAdded(Multimap<Class<?>, Subscriber> addedSubscribers) {
+        if (stickyEventCache != null) {
+            stickyEventCache.replay(addedSubscribers);
         }
     }
 
     public void unregister(Object listener) {
-        try {
-            subscriptionRegistry.unregister(listener);
-        } catch (ExecutionException e) {
-            throw new Error("Could not unregister listener!", e);
-        }
+        subscribersRemoved(subscriptionRegistry.unregister(listener));
+    }
+
+    /**
+     * Called after unregistration with the subscribers that were removed, by event type.
+     */
+    void subscribersRemoved(Multimap<Class<?>, Subscriber> removedSubscribers) {
     }
 
     public void post(Object event) {
-        Iterator<Subscriber> subscribers = subscriptionRegistry.getSubscribers(event);
-        if (subscribers.hasNext()) {
-            dispatcher.dispatch(event, subscribers);
-        } else if (!isDeadEvent(event)) {
-            post(new DeadEvent(this, event));
+        metrics.recordPosts(1);
+        rememberStickyEvent(event);
+        Subscriber[] subscribers = subscribersOf(event.getClass());
+        if (subscribers.length > 0) {
+            dispatcher.dispatch(prepareForDispatch(event, subscribers), subscribers);
+        } else {
+            deadEventChannel.record(event);
+        }
+    }
+
+    /**
+     * @return the subscribers events of class {@code eventClass} are dispatched to. The array is shared and must not be
+     * modified.
+     */
+    Subscriber[] subscribersOf(Class<?> eventClass) {
+        return subscriptionRegistry.getSubscribers(eventClass);
+    }
+
+    /**
+     * @return what to hand the dispatcher for {@code event}: the event itself, or a {@link SequencedEvent} wrapping it
+     * when the bus needs to hear back once each subscriber has received it.
+     */
+    Object prepareForDispatch(Object event, Subscriber[] subscribers) {
+        return event;
+    }
+
+    /**
+     * Called once {@code subscriber} has been handed the event with sequence number {@code sequence}.
+     */
+    void acknowledgeDelivery(Subscriber subscriber, long sequence) {
+    }
+
+    /**
+     * Posts {@code events} grouped by concrete class. Subscribers are resolved once per class and every subscriber gets
+     * the events of a class in one executor hand-off; batch subscribers receive them as one list.
+     */
+    public void postAll(Collection<?> events) {
+        metrics.recordPosts(events.size());
+        Map<Class<?>, List<Object>> eventsByClass = Maps.newLinkedHashMap();
+        for (Object event : events) {
+            rememberStickyEvent(event);
+            eventsByClass.computeIfAbsent(event.getClass(), k -> Lists.newArrayList()).add(event);
+        }
+        eventsByClass.forEach((eventClass, eventsOfClass) -> {
+            Subscriber[] subscribers = subscribersOf(eventClass);
+            if (subscribers.length > 0) {
+                dispatcher.dispatchBatch(Collections.unmodifiableList(eventsOfClass), subscribers);
+            } else {
+                eventsOfClass.forEach(deadEventChannel::record);
+            }
+        });
+    }
+
+    private void rememberStickyEvent(Object event) {
+        if (stickyEventCache != null && !isDeadEvent(event)) {
+            stickyEventCache.put(event);
+        }
+    }
+
+    /**
+     * Hands only every {@code sampleRate}-th dead event of each event class to {@link DeadEvent} subscribers; the rest
+     * are just counted. Defaults to every dead event.
+     */
+    public void sampleDeadEvents(int sampleRate) {
+        deadEventChannel.setSampleRate(sampleRate);
+    }
+
+    /**
+     * @return counts and the latest sample of the events posted while nothing subscribed to them, per event class.
+     */
+    public ImmutableList<DeadEventStats> getDeadEventStats() {
+        return deadEventChannel.getStats();
+    }
+
+    /**
+     * @return mailbox statistics for every subscriber that is not marked {@link ConcurrentEventsAllowed}.
+     */
+    public ImmutableList<MailboxStats> getMailboxStats() {
+        ImmutableList.Builder<MailboxStats> stats = ImmutableList.builder();
+        for (Subscriber subscriber : subscriptionRegistry.getAllSubscribers()) {
+            if (subscriber instanceof Subscriber.SerialSubscriber) {
+                stats.add(((Subscriber.SerialSubscriber) subscriber).getMailboxStats());
+            }
+        }
+        return stats.build();
+    }
+
+    /**
+     * @return post rate, dispatcher queue depth, executor wait time and per-subscriber invocation latency and exception
+     * counts. The post rate is measured since the previous call.
+     */
+    public EventBusStats getStats() {
+        ImmutableList.Builder<SubscriberStats> subscriberStats = ImmutableList.builder();
+        for (Subscriber subscriber : subscriptionRegistry.getAllSubscribers()) {
+            subscriberStats.add(subscriber.getStats());
+        }
+        return metrics.toStats(this, subscriberStats.build());
+    }
+
+    /**
+     * Stops the dispatcher, releasing any threads it owns, and shuts down the executor if the bus created it. Deliveries
+     * already handed to that executor still run.
+     */
+    public void stop() {
+        dispatcher.stop();
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
         }
     }
 
@@ -0,0 +1,48 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.ImmutableList;
+import lombok.AllArgsConstructor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bus-wide instrumentation: post count and executor wait time. Recording only touches striped counters and
+ * preallocated histogram buckets, so it takes no locks and does not allocate.
+ */
+final class EventBusMetrics {
+    private final LongAdder posts = new LongAdder();
+    private final LatencyHistogram executorWait = new LatencyHistogram();
+    private final AtomicReference<PostSample> lastPostSample = new AtomicReference<>(new PostSample(System.nanoTime(), 0));
+
+    void recordPosts(int count) {
+        posts.add(count);
+    }
+
+    void recordExecutorWait(long nanos) {
+        executorWait.record(nanos);
+    }
+
+    EventBusStats toStats(EventBus eventBus, ImmutableList<SubscriberStats> subscribers) {
+        PostSample sample = new PostSample(System.nanoTime(), posts.sum());
+        PostSample previous = lastPostSample.getAndSet(sample);
+        double elapsedSeconds = (double) (sample.nanos - previous.nanos) / TimeUnit.SECONDS.toNanos(1);
+        return new EventBusStats(
+                eventBus.getName(),
+                sample.posts,
+                elapsedSeconds > 0 ? (sample.posts - previous.posts) / elapsedSeconds : 0.0,
+                eventBus.getDispatcher().getQueueDepth(),
+                eventBus.getDispatcher().getDroppedCount(),
+                eventBus.getDispatcher().getCallerRunsCount(),
+                executorWait.snapshot(),
+                subscribers
+        );
+    }
+
+    @AllArgsConstructor
+    private static final class PostSample {
+        private final long nanos;
+        private final long posts;
+    }
+}
@@ -0,0 +1,47 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.ImmutableList;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time view of where time goes between posting an event and its subscriber methods returning.
+ */
+@Data
+@AllArgsConstructor
+public class EventBusStats {
+    private final String name;
+
+    /**
+     * Events posted since the bus was created, including dead events.
+     */
+    private final long posts;
+
+    /**
+     * Posts per second since the previous stats were taken, or since the bus was created.
+     */
+    private final double postsPerSecond;
+
+    /**
+     * Events handed to the dispatcher that it has not passed to subscribers yet.
+     */
+    private final int dispatcherQueueDepth;
+
+    /**
+     * Events the dispatcher discarded because its queue was full.
+     */
+    private final long dispatcherDropped;
+
+    /**
+     * Events the dispatcher delivered on the posting thread because its queue was full.
+     */
+    private final long dispatcherCallerRuns;
+
+    /**
+     * Time deliveries spent waiting for a thread of the subscriber executor. Empty for buses that deliver on the
+     * posting thread.
+     */
+    private final LatencyStats executorWait;
+
+    private final ImmutableList<SubscriberStats> subscribers;
+}
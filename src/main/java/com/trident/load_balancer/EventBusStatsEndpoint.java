@@ -0,0 +1,40 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.ImmutableList;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Serves {@link EventBus#getStats()} for every event bus bean, in the style of a Spring Boot actuator endpoint. It is
+ * only active in applications that register it or component-scan this package.
+ */
+@RestController
+public class EventBusStatsEndpoint {
+    static final String PATH = "/actuator/eventbus";
+
+    private final List<EventBus> eventBuses;
+
+    public EventBusStatsEndpoint(List<EventBus> eventBuses) {
+        this.eventBuses = eventBuses;
+    }
+
+    @GetMapping(PATH)
+    public ImmutableList<EventBusStats> allStats() {
+        ImmutableList.Builder<EventBusStats> stats = ImmutableList.builder();
+        eventBuses.forEach(eventBus -> stats.add(eventBus.getStats()));
+        return stats.build();
+    }
+
+    @GetMapping(PATH + "/{name}")
+    public ResponseEntity<EventBusStats> stats(@PathVariable String name) {
+        return eventBuses.stream()
+                .filter(eventBus -> eventBus.getName().equals(name))
+                .findFirst()
+                .map(eventBus -> ResponseEntity.ok(eventBus.getStats()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,21 @@
+package com.trident.load_balancer;
+
+/**
+ * Decides whether a subscriber wants an event, before the event is handed to the subscriber's executor. Named in
+ * {@link Subscribe#filter()}; implementations need a no-argument constructor and must be thread-safe, as one instance
+ * serves every delivery to the subscriber.
+ */
+@FunctionalInterface
+public interface EventFilter<T> {
+    boolean accepts(T event);
+
+    /**
+     * The default of {@link Subscribe#filter()}; never invoked.
+     */
+    final class AcceptAll implements EventFilter<Object> {
+        @Override
+        public boolean accepts(Object event) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.ImmutableSet;
+import lombok.AllArgsConstructor;
+
+import java.lang.reflect.Method;
+
+/**
+ * Builds the filter declared by a subscriber method's {@link Subscribe} annotation.
+ */
+final class EventFilters {
+
+    private EventFilters() {
+    }
+
+    /**
+     * @return the filter combining {@link Subscribe#keys()} and {@link Subscribe#filter()} of {@code method}, or null if
+     * the method accepts every event, so that unfiltered deliveries only pay for a null check.
+     */
+    @SuppressWarnings("unchecked")
+    static EventFilter<Object> forMethod(Method method) {
+        Subscribe subscribe = method.getAnnotation(Subscribe.class);
+        if (subscribe == null) {
+            return null;
+        }
+        EventFilter<Object> keyFilter = subscribe.keys().length == 0
+                ? null
+                : new KeyFilter(ImmutableSet.copyOf(subscribe.keys()));
+        EventFilter<Object> declaredFilter = subscribe.filter() == EventFilter.AcceptAll.class
+                ? null
+                : (EventFilter<Object>) instantiate(subscribe.filter(), method);
+        if (keyFilter == null) {
+            return declaredFilter;
+        } else if (declaredFilter == null) {
+            return keyFilter;
+        }
+        return event -> keyFilter.accepts(event) && declaredFilter.accepts(event);
+    }
+
+    private static EventFilter<?> instantiate(Class<? extends EventFilter<?>> filterClass, Method method) {
+        try {
+            return filterClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Could not create filter " + filterClass.getName() + " of " + method, e);
+        }
+    }
+
+    /**
+     * Accepts {@link KeyedEvent}s whose partition key, as a string, is one of {@code keys}.
+     */
+    @AllArgsConstructor
+    private static final class KeyFilter implements EventFilter<Object> {
+        private final ImmutableSet<String> keys;
+
+        @Override
+        public boolean accepts(Object event) {
+            return event instanceof KeyedEvent && keys.contains(String.valueOf(((KeyedEvent) event).partitionKey()));
+        }
+    }
+}
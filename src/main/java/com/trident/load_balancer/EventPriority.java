@@ -0,0 +1,10 @@
+package com.trident.load_balancer;
+
+/**
+ * Delivery priority honoured by a {@link PriorityDispatcher}. Other dispatchers deliver in posting order regardless.
+ */
+public enum EventPriority {
+    HIGH,
+    NORMAL,
+    LOW
+}
@@ -0,0 +1,19 @@
+package com.trident.load_balancer;
+
+/**
+ * When a {@link MessageLog} forces appended records from the OS page cache to disk.
+ */
+public enum FsyncPolicy {
+    /**
+     * Never; the OS writes records back whenever it sees fit. Records survive a process crash but not a power loss.
+     */
+    NONE,
+    /**
+     * After every group commit, before the futures of its records complete.
+     */
+    PER_BATCH,
+    /**
+     * Periodically, from a background thread. Up to one interval of records can be lost on a power loss.
+     */
+    INTERVAL
+}
@@ -5,24 +5,38 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
+import java.io.Serializable;
 import java.time.Instant;
 
 @Data
 @AllArgsConstructor
 @Builder
 @EqualsAndHashCode
-public class Heartbeat {
+public class Heartbeat implements KeyedEvent, Serializable {
+    /**
+     * Heartbeats are logged by the {@link DurableEventBus}, so the serialized form is pinned to the one already logged.
+     */
+    private static final long serialVersionUID = -8352440082149461619L;
+
     private String ipAddress;
     private Long timeEpochMs;
     private Double ramUsage;
     private Double cpuUsage;
     private Integer connections;
-    private ComponentUsageService componentUsageService;
+    private transient ComponentUsageService componentUsageService;
 
     public Heartbeat(ComponentUsageService componentUsageService) {
         this.componentUsageService = componentUsageService;
     }
 
+    /**
+     * Heartbeats are partitioned by node so that each node's beats are processed in order.
+     */
+    @Override
+    public Object partitionKey() {
+        return ipAddress;
+    }
+
     public Heartbeat nextHeartbeat() {
         return Heartbeat
                 .builder()
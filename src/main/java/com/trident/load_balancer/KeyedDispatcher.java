@@ -0,0 +1,117 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes every event to one of a fixed number of lanes, each drained by its own worker thread. {@link KeyedEvent}s are
+ * striped by the hash of their partition key, which gives per-key FIFO delivery with parallelism across keys. Other
+ * events are spread over the lanes round-robin. Per-key order is only kept under the {@link BackpressurePolicy#BLOCK}
+ * and {@link BackpressurePolicy#DROP_NEWEST} policies, since the others let a later event overtake a queued one.
+ */
+final class KeyedDispatcher extends Dispatcher {
+    private final AsyncDispatcher[] lanes;
+    private final AtomicInteger nextUnkeyedLane = new AtomicInteger();
+
+    KeyedDispatcher(int laneCount, int laneCapacity, @NonNull BackpressurePolicy backpressurePolicy) {
+        Preconditions.checkArgument(laneCount > 0, "Lane count must be positive");
+        this.lanes = new AsyncDispatcher[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new AsyncDispatcher(laneCapacity, 1, backpressurePolicy);
+        }
+    }
+
+    @Override
+    void dispatch(@NonNull Object event, @NonNull Subscriber[] subscribers) {
+        laneFor(event).dispatch(event, subscribers);
+    }
+
+    /**
+     * Splits the batch by lane, keeping the relative order of the events that end up in the same lane.
+     */
+    @Override
+    void dispatchBatch(@NonNull List<?> events, @NonNull Subscriber[] subscribers) {
+        if (!(events.get(0) instanceof KeyedEvent)) {
+            laneFor(events.get(0)).dispatchBatch(events, subscribers);
+            return;
+        }
+        List<List<Object>> eventsByLane = Lists.newArrayListWithCapacity(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            eventsByLane.add(null);
+        }
+        for (Object event : events) {
+            int lane = keyedLaneIndex((KeyedEvent) event);
+            if (eventsByLane.get(lane) == null) {
+                eventsByLane.set(lane, Lists.newArrayList());
+            }
+            eventsByLane.get(lane).add(event);
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            if (eventsByLane.get(i) != null) {
+                lanes[i].dispatchBatch(eventsByLane.get(i), subscribers);
+            }
+        }
+    }
+
+    private AsyncDispatcher laneFor(Object event) {
+        if (event instanceof KeyedEvent) {
+            return lanes[keyedLaneIndex((KeyedEvent) event)];
+        }
+        return lanes[Math.floorMod(nextUnkeyedLane.getAndIncrement(), lanes.length)];
+    }
+
+    private int keyedLaneIndex(KeyedEvent event) {
+        Object key = event.partitionKey();
+        if (key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+    @Override
+    void stop() {
+        for (AsyncDispatcher lane : lanes) {
+            lane.stop();
+        }
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (AsyncDispatcher lane : lanes) {
+            if (!lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getLaneCount() {
+        return lanes.length;
+    }
+
+    @Override
+    int getQueueDepth() {
+        int depth = 0;
+        for (AsyncDispatcher lane : lanes) {
+            depth += lane.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of events waiting in each lane.
+     */
+    int[] getLaneDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].getQueueDepth();
+        }
+        return depths;
+    }
+}
@@ -0,0 +1,12 @@
+package com.trident.load_balancer;
+
+/**
+ * An event that belongs to a partition. Events with equal partition keys are delivered in the order they were posted
+ * by a {@link KeyedDispatcher}; events with different keys may be delivered in parallel.
+ */
+public interface KeyedEvent {
+    /**
+     * Not named as a bean getter so that serializers do not pick it up as a property.
+     */
+    Object partitionKey();
+}
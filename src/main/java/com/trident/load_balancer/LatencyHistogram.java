@@ -0,0 +1,80 @@
+package com.trident.load_balancer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with the log-linear bucket layout of HdrHistogram: values below {@code 2^SUB_BUCKET_BITS}
+ * nanoseconds get a bucket each, and every power of two above that is split into {@code 2^SUB_BUCKET_BITS} equal
+ * buckets, so a recorded value is off by at most 1/16th of itself. Recording is an atomic increment on a preallocated
+ * array and never allocates. Values above {@link #MAX_TRACKABLE_NANOS} fall into the last bucket, whose percentiles
+ * report the maximum.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 36;
+
+    static final long MAX_TRACKABLE_NANOS = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKET_COUNT = indexOf(MAX_TRACKABLE_NANOS) + 1;
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(Math.min(value, MAX_TRACKABLE_NANOS)));
+        if (value > maxNanos.get()) {
+            maxNanos.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * @return the largest value that falls into bucket {@code index}.
+     */
+    private static long highestValueOf(int index) {
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        if (shift < 0) {
+            return index;
+        }
+        long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @return the recorded values so far. Values recorded while the snapshot is taken may or may not be included.
+     */
+    LatencyStats snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long max = maxNanos.get();
+        long[] percentiles = new long[PERCENTILES.length];
+        int index = 0;
+        long seen = 0;
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            long rank = Math.max(1, (long) Math.ceil(PERCENTILES[p] / 100.0 * count));
+            while (index < BUCKET_COUNT - 1 && seen + snapshot[index] < rank) {
+                seen += snapshot[index++];
+            }
+            percentiles[p] = count == 0 ? 0 : index == BUCKET_COUNT - 1 ? max : Math.min(highestValueOf(index), max);
+        }
+        return new LatencyStats(count, percentiles[0], percentiles[1], percentiles[2], percentiles[3], max);
+    }
+}
@@ -0,0 +1,23 @@
+package com.trident.load_balancer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time view of a latency histogram, in nanoseconds. Percentiles are accurate to within 1/16th of their value.
+ */
+@Data
+@AllArgsConstructor
+public class LatencyStats {
+    private final long count;
+
+    private final long p50Nanos;
+
+    private final long p90Nanos;
+
+    private final long p99Nanos;
+
+    private final long p999Nanos;
+
+    private final long maxNanos;
+}
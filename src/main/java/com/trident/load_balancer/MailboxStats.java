@@ -0,0 +1,25 @@
+package com.trident.load_balancer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time view of a serial subscriber's mailbox. A high share of contended deliveries or a deep mailbox marks the
+ * listener as a bottleneck.
+ */
+@Data
+@AllArgsConstructor
+public class MailboxStats {
+    private final String subscriber;
+
+    private final long deliveries;
+
+    /**
+     * Deliveries that found the mailbox already being drained and were left for the draining thread.
+     */
+    private final long contendedDeliveries;
+
+    private final int mailboxDepth;
+
+    private final int peakMailboxDepth;
+}
@@ -1,36 +1,74 @@
 package com.trident.load_balancer;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.util.SerializationUtils;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.time.Duration;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 
 /**
- * This message log is simplistic, single-threaded key-value store. Records are appended to a single segment file up
- * until the maximum size of the file is reached, upon which a new segment file is created. A compaction daemon thread
+ * This message log is a simplistic key-value store. Records are appended to a single segment file up until the maximum
+ * size of the file is reached, upon which a new segment file is created. Appends are group committed: callers serialize
+ * their records concurrently and queue them, and whichever caller finds no commit in progress writes every queued record
+ * with one gathering write on the segment's long-lived {@link FileChannel}, syncing it to disk as the
+ * {@link FsyncPolicy} asks. Records are stored in the compact binary layout of {@link RecordFormat}, with values
+ * encoded by the {@link Codec} of the segment factory. A compaction daemon thread
  * triggers the merging of multiple files. During compaction, the latest value associated with a key is taken. Tombstone
- * key-value pairs, with null values, indicate that the key-value pair will be deleted after compaction. One significant
+ * key-value pairs, with null values, indicate that the key-value pair will be deleted after compaction. Compaction runs
+ * alongside appends and lookups, which wait only while it seals the active segment and swaps in the compacted segments;
+ * {@link #getCompactionStats()} reports its throughput and those pauses. One significant
  * limitation is that segment file sizes must be much greater than a single object's size, as there is no wrapping around
  * multiple segment files.
+ * <p>
+ * A log opened on a directory an earlier log wrote to recovers its segments: each is indexed from its hint file, written
+ * when the segment filled up or the log was closed, and any records past what the hint file covers are scanned and
+ * checked. A torn record at the end of a segment, left by a crash mid-write, is truncated away; corrupt records followed
+ * by intact ones are skipped and logged, keeping the intact ones. Recovered segments are read-only and new records go
+ * to a new segment.
  *
  * @author Rohan Talkad
  */
@@ -39,24 +77,94 @@ public class MessageLog<V extends Serializable> {
 
     private static final int MAX_ATTEMPTS_AT_DELETING_BACKING_FILE = 3;
 
+    private static final int MAX_RECORDS_PER_COMMIT = 1024;
+
+    private static final int COMPACTION_BATCH_BYTES = 1 << 20;
+
     private final Segment.SegmentFactory<V> segmentFactory;
 
     private final AtomicInteger activeSegIndex = new AtomicInteger();
 
-    private final List<Segment<V>> segments = Lists.newArrayList();
+    /**
+     * Replaced wholesale, under the monitor, whenever a segment is added or compaction swaps them out, so readers can
+     * use it without locking.
+     */
+    private volatile ImmutableList<Segment<V>> segments;
+
+    /**
+     * The segment holding the latest record of every key. Appends point keys at the active segment, and compaction
+     * moves them to the copies it makes unless an append got there first.
+     */
+    private final ConcurrentMap<String, Segment<V>> keyIndex = Maps.newConcurrentMap();
+
+    /**
+     * Write-locked by compaction while it swaps in the compacted segments; lookups read optimistically and retry under
+     * the read lock if compaction ran in between, as they may have read a segment that is about to be deleted.
+     */
+    private final StampedLock compactionLock = new StampedLock();
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final Queue<PendingAppend> pendingAppends = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Held by the caller committing the queued appends.
+     */
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    private final TaskScheduler compactionScheduler = new TaskScheduler(this::performCompaction);
+
+    private final TaskScheduler fsyncScheduler = new TaskScheduler(this::fsyncSegments);
+
+    /**
+     * Syncs and writes the hint files of segments filled up by appends, so the rollover does not hold the monitor for
+     * the disk writes.
+     */
+    private final ExecutorService sealer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("message-log-sealer-%d")
+            .setDaemon(true)
+            .build());
+
+    private final CompactionMetrics compactionMetrics = new CompactionMetrics();
 
     public MessageLog(Segment.SegmentFactory<V> segmentFactory, Duration compactionInterval) throws IOException {
+        this(segmentFactory, compactionInterval, FsyncPolicy.NONE, Duration.ZERO);
+    }
+
+    /**
+     * @param fsyncInterval how often segments are synced to disk under {@link FsyncPolicy#INTERVAL}; ignored otherwise.
+     */
+    public MessageLog(
+            Segment.SegmentFactory<V> segmentFactory,
+            Duration compactionInterval,
+            FsyncPolicy fsyncPolicy,
+            Duration fsyncInterval
+    ) throws IOException {
+        Preconditions.checkArgument(
+                fsyncPolicy != FsyncPolicy.INTERVAL || fsyncInterval.toMillis() > 0,
+                "Fsync interval must be at least a millisecond"
+        );
         this.segmentFactory = segmentFactory;
+        this.fsyncPolicy = fsyncPolicy;
 
         long compactionIntervalMs = compactionInterval.toMillis();
 
         scheduleCompaction(compactionIntervalMs);
 
-        segments.add(segmentFactory.newInstance());
+        segments = ImmutableList.<Segment<V>>builder()
+                .addAll(segmentFactory.recoverSegments())
+                .add(segmentFactory.newInstance())
+                .build();
+        activeSegIndex.set(segments.size() - 1);
+        keyIndex.putAll(indexKeys(segments));
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            fsyncScheduler.start(fsyncInterval.toMillis());
+        }
     }
 
     private void scheduleCompaction(long compactionIntervalMs) {
-        new TaskScheduler(this::performCompaction).start(compactionIntervalMs);
+        compactionScheduler.start(compactionIntervalMs);
     }
 
     private Segment<V> nextSeg() {
@@ -64,46 +172,156 @@ public class MessageLog<V extends Serializable> {
     }
 
     /**
-     * @return the value associated with the given key, if it exists.s
+     * @return whether the log holds a record of the given key, without reading it. Tombstones count until compaction
+     * drops them.
      */
-    public synchronized Record<V> get(String key) {
-        Record<V> v;
-        for (Segment<V> segment : Lists.reverse(segments)) {
+    public boolean containsKey(String key) {
+        return keyIndex.containsKey(key);
+    }
+
+    /**
+     * @return the latest record of the given key, if it exists. Tombstones are returned until compaction drops them.
+     */
+    public Record<V> get(String key) {
+        long stamp = compactionLock.tryOptimisticRead();
+        if (stamp != 0) {
             try {
-                if ((v = segment.get(key)) != null) {
-                    return v;
+                Record<V> record = lookUp(key);
+                if (compactionLock.validate(stamp)) {
+                    return record;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (compactionLock.validate(stamp)) {
+                    return failedLookUp(key, e);
                 }
-            } catch (IOException e) {
-                return null;
             }
         }
+        stamp = compactionLock.readLock();
+        try {
+            return lookUp(key);
+        } catch (IOException | RuntimeException e) {
+            return failedLookUp(key, e);
+        } finally {
+            compactionLock.unlockRead(stamp);
+        }
+    }
+
+    private Record<V> lookUp(String key) throws IOException {
+        Segment<V> segment = keyIndex.get(key);
+        return segment == null ? null : segment.get(key);
+    }
+
+    private Record<V> failedLookUp(String key, Exception e) {
+        Throwables.throwIfUnchecked(e);
+        log.warn("Could not read the record of " + key, e);
         return null;
     }
 
     /**
      * Appends the given key-value pair to the log synchronously.
      */
-    public synchronized void append(String key, V val) throws IOException {
-        byte[] bytes = bytesOfKeyValuePair(key, val);
-        Segment<V> maybeWritableSegment = segments.get(activeSegIndex.get());
-        checkIfObjectIsTooLargeToFitIntoSegmentFile(bytes, maybeWritableSegment);
-        if (!tryAppendToAnExistingSegment(key, bytes, maybeWritableSegment)) {
-            appendToNewSegment(key, val);
+    public void append(String key, V val) throws IOException {
+        awaitWritten(appendAsync(key, val), key);
+    }
+
+    /**
+     * Waits for a future returned by {@link #appendAsync} or {@link #appendAllAsync}, rethrowing the failure of the
+     * write.
+     */
+    static void awaitWritten(CompletableFuture<Void> written, String what) throws IOException {
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while appending " + what);
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException("Could not append " + what, e.getCause());
         }
     }
 
-    private void checkIfObjectIsTooLargeToFitIntoSegmentFile(byte[] bytes, Segment<V> maybeWritableSegment) {
-        if (bytes.length > maybeWritableSegment.maxSizeBytes) {
-            throw new RuntimeException("This object cannot fit into a segment file!");
+    /**
+     * Appends the given key-value pair to the log as part of the next group commit. If no commit is in progress the
+     * calling thread performs it, so a lone caller finds its record written when this returns.
+     *
+     * @return a future completed once the record has been written, and synced to disk under
+     * {@link FsyncPolicy#PER_BATCH}.
+     */
+    public CompletableFuture<Void> appendAsync(String key, V val) {
+        CompletableFuture<Void> written = queueAppend(key, val);
+        commitPendingAppends();
+        return written;
+    }
+
+    /**
+     * Like {@link #appendAsync}, but queues every pair, in iteration order, before committing, so that they are written
+     * together in as few group commits as possible. A null value appends a tombstone.
+     *
+     * @return a future completed once every record has been written.
+     */
+    public CompletableFuture<Void> appendAllAsync(Map<String, V> keyValuePairs) {
+        List<CompletableFuture<Void>> written = Lists.newArrayListWithCapacity(keyValuePairs.size());
+        keyValuePairs.forEach((key, val) -> written.add(queueAppend(key, val)));
+        commitPendingAppends();
+        return CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private CompletableFuture<Void> queueAppend(String key, V val) {
+        PendingAppend pendingAppend = new PendingAppend(
+                key,
+                ByteBuffer.wrap(bytesOfKeyValuePair(key, val)),
+                new CompletableFuture<>()
+        );
+        pendingAppends.add(pendingAppend);
+        return pendingAppend.written;
+    }
+
+    /**
+     * Commits queued appends until the queue is empty or another caller is committing. The queue is checked again after
+     * the commit lock is released, so a record queued while the previous commit was finishing is never left behind.
+     */
+    private void commitPendingAppends() {
+        while (!pendingAppends.isEmpty() && commitLock.tryLock()) {
+            try {
+                commitBatch();
+            } finally {
+                commitLock.unlock();
+            }
         }
     }
 
-    private byte[] serializeEnsuringNonNullResult(Record<V> rec) {
-        byte[] bytes = SerializationUtils.serialize(rec);
-        if (bytes == null) {
-            throw new RuntimeException("Could not serialize record! " + rec);
+    private synchronized void commitBatch() {
+        List<PendingAppend> batch = Lists.newArrayList();
+        PendingAppend pendingAppend;
+        while (batch.size() < MAX_RECORDS_PER_COMMIT && (pendingAppend = pendingAppends.poll()) != null) {
+            if (pendingAppend.bytes.remaining() > segmentFactory.maxSizeBytes) {
+                pendingAppend.written.completeExceptionally(new RuntimeException("This object cannot fit into a segment file!"));
+            } else {
+                batch.add(pendingAppend);
+            }
+        }
+        int committed = 0;
+        try {
+            Segment<V> segment = segments.get(activeSegIndex.get());
+            while (committed < batch.size()) {
+                int appended = segment.appendBatch(batch.subList(committed, batch.size()), fsyncPolicy == FsyncPolicy.PER_BATCH);
+                for (PendingAppend appendedRecord : batch.subList(committed, committed + appended)) {
+                    keyIndex.put(appendedRecord.key, segment);
+                }
+                committed += appended;
+                if (committed < batch.size()) {
+                    segment.markNotWritable();
+                    Segment<V> filled = segment;
+                    sealer.execute(() -> persistSealed(filled));
+                    segment = nextWritableSegment();
+                }
+            }
+        } catch (IOException e) {
+            log.error("IOException thrown while trying to write bytes", e);
+            batch.subList(committed, batch.size()).forEach(failed -> failed.written.completeExceptionally(e));
         }
-        return bytes;
+        batch.subList(0, committed).forEach(written -> written.written.complete(null));
     }
 
     private byte[] bytesOfKeyValuePair(String key, V val) {
@@ -112,97 +330,336 @@ public class MessageLog<V extends Serializable> {
                 .key(key)
                 .val(val)
                 .build();
-        return serializeEnsuringNonNullResult(rec);
+        return RecordFormat.encode(rec, segmentFactory.codec);
     }
 
-    private boolean tryAppendToAnExistingSegment(String key, byte[] bytes, Segment<V> maybeWritableSegment) {
-        do {
-            if (maybeWritableSegment.appendValue(key, bytes)) {
-                return true;
-            }
-            maybeWritableSegment = nextSeg();
-        } while (maybeWritableSegment != null);
-        return false;
+    private Segment<V> nextWritableSegment() throws IOException {
+        Segment<V> nextSegment = nextSeg();
+        if (nextSegment == null) {
+            nextSegment = segmentFactory.newInstance();
+            segments = ImmutableList.<Segment<V>>builder().addAll(segments).add(nextSegment).build();
+            activeSegIndex.incrementAndGet();
+        }
+        return nextSegment;
     }
 
     private boolean moreSegments() {
         return activeSegIndex.get() + 1 < segments.size();
     }
 
-    private void appendToNewSegment(String key, V val) throws IOException {
-        Segment<V> newSegment = segmentFactory.newInstance();
-        segments.add(newSegment);
-        activeSegIndex.incrementAndGet();
-        byte[] bytes = bytesOfKeyValuePair(key, val);
-        newSegment.appendValue(key, bytes);
+    /**
+     * Marks a segment that will not be appended to again read-only and writes its hint file. The segment is synced first
+     * unless the policy is {@link FsyncPolicy#NONE}, so a hint file never covers records that are not on disk.
+     */
+    private void seal(Segment<V> segment) {
+        segment.markNotWritable();
+        persistSealed(segment);
     }
 
-    private synchronized void performCompaction() {
-        List<Segment<V>> oldSegments = Lists.newArrayList(segments);
+    private void persistSealed(Segment<V> segment) {
         try {
-            Map<String, Record<V>> recordMap = loadRecords();
-            if (mergeSegmentRecords(recordMap)) {
-                deleteBackingSegments(oldSegments);
-            }
+            segment.persistSealed(fsyncPolicy != FsyncPolicy.NONE);
         } catch (IOException e) {
-            log.warn("IOException while trying to merge ...", e);
+            log.warn("Could not write the hint file of segment " + segment.getSegPath(), e);
         }
     }
 
-    private void deleteBackingSegments(List<Segment<V>> segmentsToDelete) {
-        for (Segment<V> segment : segmentsToDelete) {
-            segment.deleteBackingFile();
+    /**
+     * Syncs to disk every segment written to since it was last synced.
+     */
+    private void fsyncSegments() {
+        for (Segment<V> segment : segments) {
+            try {
+                segment.fsyncIfDirty();
+            } catch (IOException e) {
+                log.warn("Could not sync segment " + segment.getSegPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops compaction, waiting for a running one to finish, writes out queued appends, syncs every segment unless the
+     * policy is {@link FsyncPolicy#NONE}, writes the hint files of the segments and closes the segment files.
+     */
+    public void close() throws IOException {
+        compactionScheduler.stop();
+        fsyncScheduler.stop();
+        commitPendingAppends();
+        sealer.shutdown();
+        try {
+            compactionScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            sealer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing compaction and sealing segments");
+        }
+        synchronized (this) {
+            for (Segment<V> segment : segments) {
+                if (fsyncPolicy != FsyncPolicy.NONE) {
+                    segment.fsyncIfDirty();
+                }
+                seal(segment);
+                segment.closeChannel();
+            }
         }
     }
 
-    private boolean mergeSegmentRecords(Map<String, Record<V>> recordMap) throws IOException {
-        if (segmentsCompactable()) {
+    public CompactionStats getCompactionStats() {
+        return compactionMetrics.toStats();
+    }
+
+    /**
+     * Compacts every segment, sealing the active one first so that none of them changes while it is read. Appends go on
+     * in a new segment meanwhile, and lookups in the old segments, which are deleted only once the compacted ones have
+     * been swapped in. If compaction fails part way, the segments it wrote are kept alongside the old ones.
+     */
+    private void performCompaction() {
+        if (!segmentsCompactable()) {
+            log.info("Not performing compaction since no segment holds overwritten records!");
+            return;
+        }
+        long startNanos = System.nanoTime();
+        Compaction compaction;
+        synchronized (this) {
+            long pauseStartNanos = System.nanoTime();
+            segments.get(activeSegIndex.get()).markNotWritable();
+            compaction = new Compaction(segments);
+            compactionMetrics.recordPause(System.nanoTime() - pauseStartNanos);
+        }
+        boolean completed = false;
+        try {
             log.info("Performing compaction!");
-            Segment<V> currentSegment = initializeSegments();
-            for (Record<V> record : recordMap.values()) {
-                if (!record.isTombstone() && !currentSegment.appendRecordInBytes(record.getKey(), serializeEnsuringNonNullResult(record))) {
-                    currentSegment = segmentFactory.newInstance();
-                    segments.add(currentSegment);
+            compaction.copyLiveRecords();
+            completed = true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Exception while trying to merge ...", e);
+        }
+        swapInCompactedSegments(compaction, completed);
+        if (completed) {
+            // Oldest first, so that a crash part way never leaves an older record of a dropped tombstone behind it
+            deleteBackingSegments(compaction.inputs);
+            compactionMetrics.recordCompaction(
+                    System.nanoTime() - startNanos,
+                    compaction.recordsCopied,
+                    compaction.tombstonesDropped,
+                    sizeOf(compaction.inputs),
+                    sizeOf(compaction.outputs)
+            );
+        }
+    }
+
+    private void swapInCompactedSegments(Compaction compaction, boolean completed) {
+        synchronized (this) {
+            long pauseStartNanos = System.nanoTime();
+            long stamp = compactionLock.writeLock();
+            try {
+                ImmutableList<Segment<V>> current = segments;
+                ImmutableList.Builder<Segment<V>> swapped = ImmutableList.builder();
+                if (!completed) {
+                    swapped.addAll(compaction.inputs);
                 }
+                segments = swapped
+                        .addAll(compaction.outputs)
+                        .addAll(current.subList(compaction.inputs.size(), current.size()))
+                        .build();
+                activeSegIndex.set(segments.size() - 1);
+            } finally {
+                compactionLock.unlockWrite(stamp);
             }
-            activeSegIndex.set(segments.size() - 1);
-            return true;
-        } else {
-            log.info("Not performing compaction since single segment not filled!");
-            return false;
+            compactionMetrics.recordPause(System.nanoTime() - pauseStartNanos);
         }
     }
 
-    private boolean segmentsCompactable() {
-        return segments.size() != 1;
+    private static long sizeOf(List<? extends Segment<?>> segmentsToSize) {
+        long size = 0;
+        for (Segment<?> segment : segmentsToSize) {
+            size += segment.getCurrentOffset();
+        }
+        return size;
     }
 
-    private Segment<V> initializeSegments() throws IOException {
-        Segment<V> currentSegment = segmentFactory.newInstance();
-        segments.clear();
-        segments.add(currentSegment);
-        return currentSegment;
+    private Map<String, Segment<V>> indexKeys(List<Segment<V>> segmentsToIndex) {
+        Map<String, Segment<V>> index = Maps.newConcurrentMap();
+        for (Segment<V> segment : segmentsToIndex) {
+            segment.getOffsetTable().keySet().forEach(key -> index.put(key, segment));
+        }
+        return index;
     }
 
-    private Map<String, Record<V>> loadRecords() throws IOException {
-        Map<String, Record<V>> recordMap = Maps.newHashMap();
-        for (Segment<V> segment : segments) {
-            List<Record<V>> records = segment.getRecords();
-            if (records != null) {
-                for (Record<V> curRecord : records) {
-                    Record<V> maybePreviousRecord = recordMap.get(curRecord.getKey());
-                    if (isLatestRecord(curRecord, maybePreviousRecord)) {
-                        recordMap.put(curRecord.getKey(), curRecord);
+    private void deleteBackingSegments(List<Segment<V>> segmentsToDelete) {
+        for (Segment<V> segment : segmentsToDelete) {
+            segment.deleteBackingFile();
+        }
+    }
+
+    /**
+     * @return whether there are several segments and some of them hold records that were overwritten since.
+     */
+    private boolean segmentsCompactable() {
+        ImmutableList<Segment<V>> current = segments;
+        if (current.size() == 1) {
+            return false;
+        }
+        for (Segment<V> segment : current) {
+            long liveBytes = 0;
+            for (Entry<String, Segment.ByteOffset> offsetEntry : segment.getOffsetTable().entrySet()) {
+                if (keyIndex.get(offsetEntry.getKey()) == segment) {
+                    liveBytes += offsetEntry.getValue().getLength();
+                }
+            }
+            if (liveBytes < segment.getCurrentOffset()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One compaction. It streams the live records of the segments it compacts into new segments, in batches of at most
+     * {@link #COMPACTION_BATCH_BYTES}, copying records as they are read from the mapped segment files without decoding
+     * them. The new segments are numbered from a range reserved up front, so they sort after the compacted segments and
+     * before any segment created meanwhile, and recovery finds the latest record of every key last.
+     */
+    private final class Compaction {
+        private final ImmutableList<Segment<V>> inputs;
+        private final List<Segment<V>> outputs = Lists.newArrayList();
+        private final List<CopiedRecord> staged = Lists.newArrayList();
+        private final int lastOutputNumber;
+        private int nextOutputNumber;
+        private long stagedBytes;
+        private long recordsCopied;
+        private long tombstonesDropped;
+
+        private Compaction(ImmutableList<Segment<V>> inputs) {
+            this.inputs = inputs;
+            // Appending records in order, as next fit does, never takes more than twice the segments they fill
+            int reserved = 2 * inputs.size();
+            this.nextOutputNumber = segmentFactory.reserveSegmentNumbers(reserved);
+            this.lastOutputNumber = nextOutputNumber + reserved - 1;
+        }
+
+        private void copyLiveRecords() throws IOException {
+            for (Segment<V> input : inputs) {
+                for (Entry<String, Segment.ByteOffset> offsetEntry : input.getOffsetTable().entrySet()) {
+                    String key = offsetEntry.getKey();
+                    if (keyIndex.get(key) == input) {
+                        Segment.ByteOffset byteOffset = offsetEntry.getValue();
+                        stage(input, key, input.read(byteOffset.getLength(), byteOffset.getOffset()));
                     }
                 }
             }
-            segment.markNotWritable();
+            flush();
+            if (outputs.isEmpty()) {
+                addOutput();
+            }
+            persistOutputs();
+        }
+
+        /**
+         * Syncs every new segment, unless the policy is {@link FsyncPolicy#NONE}, and writes its hint file, so that the
+         * copies are as durable as the records they replace before the compacted segments are deleted. Only outputs that
+         * filled up were sealed by {@link #flush}.
+         */
+        private void persistOutputs() throws IOException {
+            for (Segment<V> output : outputs) {
+                output.persistSealed(fsyncPolicy != FsyncPolicy.NONE);
+            }
+        }
+
+        /**
+         * Queues a live record to be copied, unless it is a tombstone. Tombstones are dropped along with their key, as
+         * every older record of the key is in a segment being compacted.
+         */
+        private void stage(Segment<V> input, String key, ByteBuffer bytes) throws IOException {
+            ByteBuffer record = bytes;
+            boolean tombstone;
+            try {
+                if (RecordFormat.isLegacy(bytes)) {
+                    Record<V> legacyRecord = RecordFormat.read(bytes.duplicate(), input.getCodec());
+                    tombstone = legacyRecord.isTombstone();
+                    record = ByteBuffer.wrap(RecordFormat.encode(legacyRecord, input.getCodec()));
+                } else {
+                    RecordFormat.readKey(bytes.duplicate());
+                    tombstone = RecordFormat.isTombstone(bytes);
+                }
+            } catch (IOException e) {
+                log.warn("Dropping the unreadable record of " + key + " in " + input.getSegPath(), e);
+                keyIndex.remove(key, input);
+                return;
+            }
+            if (tombstone) {
+                keyIndex.remove(key, input);
+                tombstonesDropped++;
+                return;
+            }
+            staged.add(new CopiedRecord(key, record, input));
+            stagedBytes += record.remaining();
+            if (stagedBytes >= COMPACTION_BATCH_BYTES) {
+                flush();
+            }
+        }
+
+        /**
+         * Appends the staged records to the new segments and points their keys at the copies.
+         */
+        private void flush() throws IOException {
+            int flushed = 0;
+            while (flushed < staged.size()) {
+                Segment<V> output = outputs.isEmpty() ? addOutput() : outputs.get(outputs.size() - 1);
+                List<CopiedRecord> remaining = staged.subList(flushed, staged.size());
+                int appended = output.appendBatch(remaining, false);
+                for (CopiedRecord copied : remaining.subList(0, appended)) {
+                    // Fails if the key was appended to since it was staged, leaving the copy dead
+                    if (keyIndex.replace(copied.key, copied.source, output)) {
+                        recordsCopied++;
+                    }
+                }
+                flushed += appended;
+                if (flushed < staged.size()) {
+                    seal(output);
+                    addOutput();
+                }
+            }
+            staged.clear();
+            stagedBytes = 0;
+        }
+
+        private Segment<V> addOutput() throws IOException {
+            Preconditions.checkState(nextOutputNumber <= lastOutputNumber, "Compaction ran out of segment numbers");
+            Segment<V> output = segmentFactory.newInstance(nextOutputNumber++);
+            outputs.add(output);
+            return output;
+        }
+    }
+
+    /**
+     * The encoded bytes of a record, ready to be appended to a segment.
+     */
+    @AllArgsConstructor
+    static class EncodedRecord {
+        final String key;
+        final ByteBuffer bytes;
+    }
+
+    private static final class PendingAppend extends EncodedRecord {
+        private final CompletableFuture<Void> written;
+
+        private PendingAppend(String key, ByteBuffer bytes, CompletableFuture<Void> written) {
+            super(key, bytes);
+            this.written = written;
         }
-        return recordMap;
     }
 
-    private boolean isLatestRecord(Record<V> curRecord, Record<V> maybePreviousRecord) {
-        return maybePreviousRecord == null || curRecord.getAppendTime() > maybePreviousRecord.getAppendTime();
+    /**
+     * A live record compaction copies out of one of the segments it compacts.
+     */
+    private final class CopiedRecord extends EncodedRecord {
+        private final Segment<V> source;
+
+        private CopiedRecord(String key, ByteBuffer bytes, Segment<V> source) {
+            super(key, bytes);
+            this.source = source;
+        }
     }
 
     @Data
@@ -227,84 +684,391 @@ public class MessageLog<V extends Serializable> {
     @Data
     public static class Segment<V extends Serializable> {
 
+        private static final byte HINT_FILE_VERSION = 1;
+
+        private static final String HINT_FILE_SUFFIX = ".hint";
+
         private final long maxSizeBytes;
         private final Path segPath;
-        private final Map<String, ByteOffset> offsetTable = Maps.newLinkedHashMap();
+        private final Map<String, ByteOffset> offsetTable = Maps.newConcurrentMap();
         private volatile long currentOffset = 0;
         private volatile boolean writable = true;
         private volatile double currentSizeBytes = 0;
+        /**
+         * Opened on first use and kept open until the segment is closed or deleted.
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private FileChannel channel;
+        /**
+         * Whether records were written since the segment was last synced to disk.
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private volatile boolean dirty;
+        /**
+         * The whole segment file, mapped on the first read after the segment stopped being writable.
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private volatile MappedByteBuffer mapped;
+        /**
+         * How much of the segment file the hint file on disk covers; -1 if there is none.
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private volatile long hintedOffset = -1;
+        /**
+         * Set once the segment files are being deleted, after which the segment is never read or written again. Guarded
+         * by the segment's monitor.
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private boolean deleted;
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final Codec<V> codec;
 
         public Segment(long maxSizeBytes, Path segPath) {
+            this(maxSizeBytes, segPath, Codec.javaSerialization());
+        }
+
+        public Segment(long maxSizeBytes, Path segPath, Codec<V> codec) {
             this.maxSizeBytes = maxSizeBytes;
             this.segPath = segPath;
+            this.codec = codec;
         }
 
         public ImmutableList<Record<V>> getRecords() throws IOException {
-            byte[] allBytes = Files.readAllBytes(segPath);
+            ByteBuffer allBytes = ByteBuffer.wrap(Files.readAllBytes(segPath));
             ImmutableList.Builder<Record<V>> records = ImmutableList.builder();
             for (Entry<String, ByteOffset> offsetEntry : offsetTable.entrySet()) {
                 ByteOffset byteOffset = offsetEntry.getValue();
-                long offset = byteOffset.getOffset();
-                byte[] bytes = Arrays.copyOfRange(allBytes, (int) offset, (int) offset + byteOffset.getLength());
+                int offset = (int) byteOffset.getOffset();
                 try {
-                    Record<V> rec = (Record<V>) SerializationUtils.deserialize(bytes);
-                    if (rec != null) {
-                        records.add(rec);
-                    }
-                } catch (ClassCastException e) {
-                    log.warn("Failed to cast a record!");
+                    ByteBuffer bytes = allBytes.duplicate().position(offset).limit(offset + byteOffset.getLength());
+                    records.add(RecordFormat.read(bytes, codec));
+                } catch (IOException e) {
+                    log.warn("Skipping the unreadable record of " + offsetEntry.getKey() + " in " + segPath, e);
                 }
             }
             return records.build();
         }
 
-        public void writeBytesToSegmentFile(Path path, byte[] bytes) throws IOException {
-            Files.write(path, bytes, StandardOpenOption.APPEND);
+        /**
+         * Rewrites a segment file written before {@link RecordFormat}, whose records are Java-serialized, in the current
+         * format. Records already in the current format are copied as they are. The file is replaced atomically, so a
+         * crash leaves either the old or the migrated file behind.
+         *
+         * @return how many records were rewritten.
+         */
+        public static <V extends Serializable> int migrateLegacySegmentFile(Path segPath, Codec<V> codec)
+                throws IOException {
+            ByteBuffer legacy = ByteBuffer.wrap(Files.readAllBytes(segPath));
+            Path migratedPath = segPath.resolveSibling(segPath.getFileName() + ".migrating");
+            int migrated = 0;
+            try (FileChannel migratedFile = FileChannel.open(
+                    migratedPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE
+            )) {
+                while (legacy.hasRemaining()) {
+                    int start = legacy.position();
+                    boolean legacyRecord = RecordFormat.isLegacy(legacy);
+                    Record<V> record = RecordFormat.read(legacy, codec);
+                    ByteBuffer bytes = legacyRecord
+                            ? ByteBuffer.wrap(RecordFormat.encode(record, codec))
+                            : legacy.duplicate().position(start).limit(legacy.position());
+                    while (bytes.hasRemaining()) {
+                        migratedFile.write(bytes);
+                    }
+                    migrated += legacyRecord ? 1 : 0;
+                }
+                migratedFile.force(true);
+            }
+            Files.move(migratedPath, segPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Offsets have moved, so a hint file would now point at the wrong bytes
+            Files.deleteIfExists(hintPathOf(segPath));
+            return migrated;
+        }
+
+        /**
+         * Opens a segment file an earlier log wrote, read-only. Its offset table is loaded from the hint file, if there
+         * is a readable one, and completed by scanning the records past what the hint file covers.
+         */
+        static <V extends Serializable> Segment<V> recover(long maxSizeBytes, Path segPath, Codec<V> codec)
+                throws IOException {
+            Segment<V> segment = new Segment<>(maxSizeBytes, segPath, codec);
+            segment.scanRecordsFrom(segment.loadHintFile());
+            segment.markNotWritable();
+            return segment;
+        }
+
+        private Path hintPath() {
+            return hintPathOf(segPath);
+        }
+
+        private static Path hintPathOf(Path segPath) {
+            String segName = segPath.getFileName().toString();
+            return segPath.resolveSibling(segName.replaceFirst("\\.dat$", "") + HINT_FILE_SUFFIX);
+        }
+
+        /**
+         * Persists the offset table next to the segment file, replacing the previous hint file atomically. Does nothing
+         * if the hint file already covers the whole segment.
+         */
+        void writeHintFile() throws IOException {
+            long covered = currentOffset;
+            if (hintedOffset == covered) {
+                return;
+            }
+            List<Entry<byte[], ByteOffset>> entries = Lists.newArrayList();
+            int size = 1 + Long.BYTES + Integer.BYTES + Integer.BYTES;
+            for (Entry<String, ByteOffset> offsetEntry : offsetTable.entrySet()) {
+                ByteOffset byteOffset = offsetEntry.getValue();
+                // Records appended while the hint file is written are left to the scan of the segment's tail
+                if (byteOffset.getOffset() + byteOffset.getLength() <= covered) {
+                    byte[] key = offsetEntry.getKey().getBytes(StandardCharsets.UTF_8);
+                    entries.add(Maps.immutableEntry(key, byteOffset));
+                    size += Integer.BYTES + key.length + Long.BYTES + Integer.BYTES;
+                }
+            }
+            ByteBuffer hints = ByteBuffer.allocate(size);
+            hints.put(HINT_FILE_VERSION).putLong(covered).putInt(entries.size());
+            for (Entry<byte[], ByteOffset> entry : entries) {
+                hints.putInt(entry.getKey().length)
+                        .put(entry.getKey())
+                        .putLong(entry.getValue().getOffset())
+                        .putInt(entry.getValue().getLength());
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(hints.array(), 0, hints.position());
+            hints.putInt((int) crc.getValue()).flip();
+
+            Path tempPath = hintPath().resolveSibling(hintPath().getFileName() + ".tmp");
+            try (FileChannel hintFile = FileChannel.open(
+                    tempPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE
+            )) {
+                while (hints.hasRemaining()) {
+                    hintFile.write(hints);
+                }
+                hintFile.force(true);
+            }
+            Files.move(tempPath, hintPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            hintedOffset = covered;
+        }
+
+        /**
+         * Fills the offset table from the hint file.
+         *
+         * @return the offset up to which the hint file covers the segment; 0 if there is no usable hint file.
+         */
+        private long loadHintFile() {
+            Path hintPath = hintPath();
+            if (!Files.exists(hintPath)) {
+                return 0;
+            }
+            try {
+                ByteBuffer hints = ByteBuffer.wrap(Files.readAllBytes(hintPath));
+                CRC32C crc = new CRC32C();
+                crc.update(hints.array(), 0, Math.max(0, hints.limit() - Integer.BYTES));
+                if (hints.limit() < 1 + Long.BYTES + Integer.BYTES + Integer.BYTES
+                        || (int) crc.getValue() != hints.getInt(hints.limit() - Integer.BYTES)
+                        || hints.get() != HINT_FILE_VERSION) {
+                    throw new IOException("Corrupt hint file");
+                }
+                long covered = hints.getLong();
+                if (covered > Files.size(segPath)) {
+                    throw new IOException("Hint file covers " + covered + " bytes, more than the segment holds");
+                }
+                Map<String, ByteOffset> hinted = Maps.newHashMap();
+                for (int remaining = hints.getInt(); remaining > 0; remaining--) {
+                    byte[] key = new byte[hints.getInt()];
+                    hints.get(key);
+                    long recordOffset = hints.getLong();
+                    int recordLength = hints.getInt();
+                    if (recordOffset < 0 || recordLength < 0 || recordOffset + recordLength > covered) {
+                        throw new IOException("Hint file points past the bytes it covers");
+                    }
+                    hinted.put(new String(key, StandardCharsets.UTF_8), new ByteOffset(recordLength, recordOffset));
+                }
+                offsetTable.putAll(hinted);
+                hintedOffset = covered;
+                return covered;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring the hint file of segment " + segPath + "; scanning the segment instead", e);
+                return 0;
+            }
+        }
+
+        /**
+         * Indexes the records from {@code offset} to the end of the segment file, reading them in place from a mapping of
+         * the file and checking each against its length and checksum. A record that fails is skipped up to the next
+         * intact record and reported. If no intact record follows it, it is a torn write left by a crash and the file is
+         * truncated there.
+         */
+        private void scanRecordsFrom(long offset) throws IOException {
+            long length = Files.size(segPath) - offset;
+            ByteBuffer tail = channel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+            while (tail.hasRemaining()) {
+                int start = tail.position();
+                try {
+                    String key = RecordFormat.readKey(tail);
+                    offsetTable.put(key, new ByteOffset(tail.position() - start, offset + start));
+                } catch (IOException e) {
+                    int next = nextIntactRecord(tail, start + 1);
+                    if (next < 0) {
+                        log.warn(String.format(
+                                "Truncating segment %s at %d, dropping %d bytes of a torn record",
+                                segPath, offset + start, length - start
+                        ), e);
+                        channel().truncate(offset + start);
+                        tail.limit(start);
+                    } else {
+                        log.error(String.format(
+                                "Skipping %d bytes of corrupt records at %d in segment %s",
+                                next - start, offset + start, segPath
+                        ), e);
+                        tail.position(next);
+                    }
+                }
+            }
+            currentOffset = offset + tail.limit();
+            currentSizeBytes = currentOffset;
+        }
+
+        /**
+         * @return the position of the first record at or after {@code from} that reads back whole: a current-format record
+         * that passes its checksum, or a legacy record that deserializes. -1 if there is none.
+         */
+        private static int nextIntactRecord(ByteBuffer buffer, int from) {
+            ByteBuffer candidate = buffer.duplicate();
+            for (int position = from; position < buffer.limit(); position++) {
+                candidate.position(position);
+                if (buffer.get(position) == RecordFormat.VERSION || RecordFormat.isLegacy(candidate)) {
+                    try {
+                        RecordFormat.readKey(candidate);
+                        return position;
+                    } catch (IOException | RuntimeException e) {
+                        // Not the start of a record
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @throws ClosedChannelException once the segment is being deleted, so that a lookup racing compaction retries
+         * instead of reopening, and leaking, a channel on a file about to be unlinked.
+         */
+        private synchronized FileChannel channel() throws IOException {
+            if (deleted) {
+                throw new ClosedChannelException();
+            }
+            if (channel == null) {
+                channel = FileChannel.open(segPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
         }
 
-        public byte[] read(Path path, int numBytes, long offset) throws IOException {
+        /**
+         * Writes {@code buffers} at the end of the segment file with as few gathering writes as the OS allows.
+         */
+        private void writeToSegmentFile(ByteBuffer[] buffers) throws IOException {
+            FileChannel ch = channel();
+            ch.position(currentOffset);
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= ch.write(buffers);
+            }
+            dirty = true;
+        }
+
+        /**
+         * @return the {@code numBytes} bytes at {@code offset}: a slice of the mapped file once the segment is read-only,
+         * otherwise a copy read through the segment's channel.
+         */
+        public ByteBuffer read(int numBytes, long offset) throws IOException {
+            ByteBuffer mappedFile = mappedCovering(offset + numBytes);
+            if (mappedFile != null) {
+                return mappedFile.duplicate().position((int) offset).limit((int) offset + numBytes).slice();
+            }
             ByteBuffer bb = ByteBuffer.allocate(numBytes);
-            try (FileChannel ch = FileChannel.open(path)) {
-                ch.read(bb, offset);
-                return bb.array();
+            FileChannel ch = channel();
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, offset + bb.position()) < 0) {
+                    throw new EOFException("Segment " + segPath + " ends before offset " + (offset + numBytes));
+                }
             }
+            return bb.flip();
         }
 
-        private byte[] concat(byte[] l, byte[] r) {
-            byte[] combined = new byte[l.length + r.length];
-            int i = 0;
-            for (int j = 0; i < l.length; i++, j++) {
-                combined[i] = l[j];
+        /**
+         * @return the mapped segment file if the segment is read-only and the mapping extends to {@code end}, mapping it
+         * first if needed; null if the bytes must be read through the channel.
+         */
+        private ByteBuffer mappedCovering(long end) throws IOException {
+            MappedByteBuffer mappedFile = mapped;
+            if (mappedFile != null && mappedFile.capacity() >= end) {
+                return mappedFile;
             }
-            for (int j = 0; j < r.length; i++, j++) {
-                combined[i] = r[j];
+            if (writable) {
+                return null;
+            }
+            synchronized (this) {
+                // A segment is marked read-only just before the write that fills it, so map only what has been written
+                if (currentOffset < end) {
+                    return null;
+                }
+                if (mapped == null || mapped.capacity() < end) {
+                    mapped = channel().map(FileChannel.MapMode.READ_ONLY, 0, currentOffset);
+                }
+                return mapped;
             }
-            return combined;
         }
 
-        private boolean appendRecordInBytes(String key, byte[] bytes) {
-            if (!writable) {
-                log.info(String.format("Segment with path %s is not writable", segPath));
-                return false;
-            }
-            long newOffset = currentOffset + bytes.length;
-            if (newOffset > maxSizeBytes) {
-                log.trace(String.format("Record with key %s too large for segment %s!", key, segPath));
-                return false;
-            } else if (newOffset == maxSizeBytes) {
-                markNotWritable();
+        /**
+         * Syncs the segment if {@code fsync} is true and writes its hint file, unless the segment was deleted meanwhile.
+         */
+        synchronized void persistSealed(boolean fsync) throws IOException {
+            if (deleted) {
+                return;
+            }
+            if (fsync) {
+                fsyncIfDirty();
             }
-            return tryWrite(key, bytes, newOffset);
+            writeHintFile();
         }
 
-        private boolean tryWrite(String key, byte[] bytes, long newOffset) {
-            try {
-                writeBytesToSegmentFile(segPath, bytes);
-                updateSegmentStateVariables(key, newOffset);
-                return true;
-            } catch (IOException e) {
-                log.error("IOException thrown while trying to write bytes", e);
-                return false;
+        void fsyncIfDirty() throws IOException {
+            if (dirty) {
+                dirty = false;
+                channel().force(false);
+            }
+        }
+
+        synchronized void closeChannel() throws IOException {
+            mapped = null;
+            if (channel != null) {
+                channel.close();
+                channel = null;
             }
         }
 
@@ -316,17 +1080,40 @@ public class MessageLog<V extends Serializable> {
             currentSizeBytes += totalRecordLength;
         }
 
-        private byte[] getLengthBytes(byte[] bytes) {
-            ByteBuffer bb = ByteBuffer.allocate(4);
-            bb.putInt(bytes.length);
-            return bb.array();
-        }
-
         /**
-         * @return true if this value was appended. False indicates that the log is not writable.
+         * Appends as many of {@code records}, from the first, as fit into this segment with a single gathering
+         * write, and syncs them to disk if {@code fsync} is true.
+         *
+         * @return how many records were appended; 0 if the segment is not writable or the first record does not fit.
          */
-        public boolean appendValue(String key, byte[] bytes) {
-            return appendRecordInBytes(key, bytes);
+        private int appendBatch(List<? extends EncodedRecord> records, boolean fsync) throws IOException {
+            if (!writable) {
+                return 0;
+            }
+            int count = 0;
+            long newOffset = currentOffset;
+            while (count < records.size() && newOffset + records.get(count).bytes.remaining() <= maxSizeBytes) {
+                newOffset += records.get(count++).bytes.remaining();
+            }
+            if (count == 0) {
+                return 0;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                buffers[i] = records.get(i).bytes.duplicate();
+            }
+            writeToSegmentFile(buffers);
+            if (fsync) {
+                fsyncIfDirty();
+            }
+            for (int i = 0; i < count; i++) {
+                EncodedRecord record = records.get(i);
+                updateSegmentStateVariables(record.key, currentOffset + record.bytes.remaining());
+            }
+            if (newOffset == maxSizeBytes) {
+                markNotWritable();
+            }
+            return count;
         }
 
         public Record<V> get(String key) throws IOException {
@@ -334,18 +1121,8 @@ public class MessageLog<V extends Serializable> {
             if (offset == null) {
                 return null;
             }
-            byte[] bytes = read(segPath, offset.getLength(), offset.getOffset());
-            Object maybeRecord = SerializationUtils.deserialize(bytes);
-            if (maybeRecord == null) {
-                return null;
-            } else if (maybeRecord instanceof Record) {
-                return (Record<V>) maybeRecord;
-            } else {
-                throw new RuntimeException(String.format(
-                        "Bytes from %s cannot be de-serialized into a Record!",
-                        offset
-                ));
-            }
+            // Parsed straight from the buffer, so records read from a mapped segment are never copied to the heap first
+            return RecordFormat.read(read(offset.getLength(), offset.getOffset()), codec);
         }
 
         /**
@@ -356,6 +1133,19 @@ public class MessageLog<V extends Serializable> {
         }
 
         public void deleteBackingFile() {
+            synchronized (this) {
+                deleted = true;
+            }
+            try {
+                closeChannel();
+            } catch (IOException e) {
+                log.warn("Could not close segment file " + segPath, e);
+            }
+            try {
+                Files.deleteIfExists(hintPath());
+            } catch (IOException e) {
+                log.warn("Could not delete the hint file of segment " + segPath, e);
+            }
             if (!Files.exists(segPath)) {
                 log.trace("Backing file does not exist!");
                 return;
@@ -386,12 +1176,20 @@ public class MessageLog<V extends Serializable> {
         }
 
         public static class SegmentFactory<V extends Serializable> {
+            private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("segment-(\\d+)\\.dat");
+
             private final AtomicInteger currentSegment = new AtomicInteger(1);
             private final long maxSizeBytes;
             private final Path parentSegmentPath;
+            private final Codec<V> codec;
 
             public SegmentFactory(long maxSizeBytes, Path parentSegmentPath) throws IOException {
+                this(maxSizeBytes, parentSegmentPath, Codec.javaSerialization());
+            }
+
+            public SegmentFactory(long maxSizeBytes, Path parentSegmentPath, Codec<V> codec) throws IOException {
                 this.maxSizeBytes = maxSizeBytes;
+                this.codec = codec;
                 if (!Files.exists(parentSegmentPath)) {
                     Files.createDirectories(parentSegmentPath);
                 }
@@ -399,11 +1197,53 @@ public class MessageLog<V extends Serializable> {
             }
 
             public Segment<V> newInstance() throws IOException {
-                int segNumber = currentSegment.getAndIncrement();
+                return newInstance(currentSegment.getAndIncrement());
+            }
+
+            /**
+             * @return the first of {@code count} consecutive segment numbers that {@link #newInstance()} will not hand
+             * out.
+             */
+            int reserveSegmentNumbers(int count) {
+                return currentSegment.getAndAdd(count);
+            }
+
+            Segment<V> newInstance(int segNumber) throws IOException {
                 String segName = String.format("segment-%d.dat", segNumber);
                 Path newSegPath = parentSegmentPath.resolve(segName);
                 createSegFile(newSegPath);
-                return new Segment<>(maxSizeBytes, newSegPath);
+                return new Segment<>(maxSizeBytes, newSegPath, codec);
+            }
+
+            /**
+             * Opens the segment files left in the directory by an earlier log, oldest first, and numbers the segments
+             * created from now on after them. Segment files without a single intact record are deleted.
+             */
+            public ImmutableList<Segment<V>> recoverSegments() throws IOException {
+                Map<Integer, Path> segFiles = Maps.newTreeMap();
+                try (Stream<Path> files = Files.list(parentSegmentPath)) {
+                    files.forEach(file -> {
+                        Matcher matcher = SEGMENT_FILE_NAME.matcher(file.getFileName().toString());
+                        if (matcher.matches()) {
+                            segFiles.put(Integer.parseInt(matcher.group(1)), file);
+                        }
+                    });
+                }
+                ImmutableList.Builder<Segment<V>> recovered = ImmutableList.builder();
+                for (Entry<Integer, Path> segFile : segFiles.entrySet()) {
+                    currentSegment.accumulateAndGet(segFile.getKey() + 1, Math::max);
+                    Segment<V> segment = Segment.recover(maxSizeBytes, segFile.getValue(), codec);
+                    if (segment.getOffsetTable().isEmpty()) {
+                        segment.deleteBackingFile();
+                    } else {
+                        log.info(String.format(
+                                "Recovered %d keys from segment %s",
+                                segment.getOffsetTable().size(), segFile.getValue()
+                        ));
+                        recovered.add(segment);
+                    }
+                }
+                return recovered.build();
             }
 
             private void createSegFile(Path newSegPath) throws IOException {
@@ -119,7 +119,11 @@ public class NodeAvailabilityReceiver {
                 .block(pingWaitTime);
     }
 
-    @Subscribe
+    /**
+     * Revives nodes as soon as they beat again, ahead of routine heartbeat processing under a {@link PriorityDispatcher}.
+     */
+    @Subscribe(priority = EventPriority.HIGH)
+    @ConcurrentEventsAllowed
     public void onNewHeartbeat(Heartbeat heartbeat) {
         Node node = cluster.getNode(heartbeat.getIpAddress());
         if (!node.isActive()) {
@@ -16,7 +16,12 @@ public class NodeComponentUpdateReceiver {
         this.cluster = cluster;
     }
 
-    @Subscribe
+    /**
+     * Only the latest heartbeat of a node matters, so heartbeats still waiting for an earlier one to be processed are
+     * replaced by newer ones from the same node. Heartbeats of different nodes are processed in parallel, as they only
+     * touch thread-safe per-node state.
+     */
+    @Subscribe(coalesce = true)
     public void onHeartbeat(Heartbeat heartbeat) {
         ImmutableMap<Component, Number> componentUsage = getValidComponentsForUpdate(heartbeat);
         dispatchHbToNode(componentUsage, heartbeat.getIpAddress());
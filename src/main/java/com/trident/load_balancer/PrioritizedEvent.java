@@ -0,0 +1,12 @@
+package com.trident.load_balancer;
+
+/**
+ * An event that asks to be delivered ahead of lower priority events by a {@link PriorityDispatcher}. A subscriber
+ * receives it at the higher of this priority and its own {@link Subscribe#priority()}.
+ */
+public interface PrioritizedEvent {
+    /**
+     * Not named as a bean getter so that serializers do not pick it up as a property.
+     */
+    EventPriority eventPriority();
+}
@@ -0,0 +1,155 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.List;
+
+/**
+ * Queues events in one bounded lane per {@link EventPriority} and delivers them from a pool of worker threads that
+ * always take from the highest priority non-empty lane, so availability events are not stuck behind a backlog of
+ * routine heartbeats. To keep lower lanes from starving under a sustained flood of higher priority events, every
+ * {@code starvationLimit}-th take of a worker starts from one of the lower lanes instead, rotating between them.
+ * <p>
+ * An event goes to the lane of the higher of its {@link PrioritizedEvent} priority and each subscriber's
+ * {@link Subscribe#priority()}, so subscribers of one event may be split across lanes.
+ */
+final class PriorityDispatcher extends WorkerPoolDispatcher {
+    static final int DEFAULT_STARVATION_LIMIT = 16;
+
+    private static final EventPriority[] PRIORITIES = EventPriority.values();
+
+    private final int starvationLimit;
+
+    PriorityDispatcher(int laneCapacity, int workerThreads, @NonNull BackpressurePolicy backpressurePolicy,
+                       int starvationLimit) {
+        super(PRIORITIES.length, laneCapacity, backpressurePolicy);
+        Preconditions.checkArgument(starvationLimit > 1, "Starvation limit must be greater than one");
+        this.starvationLimit = starvationLimit;
+        startWorkers("priority-dispatcher-%d", workerThreads);
+    }
+
+    @Override
+    LanePoller newPoller() {
+        return new FairPoller();
+    }
+
+    @Override
+    void dispatch(@NonNull Object event, @NonNull Subscriber[] subscribers) {
+        enqueueByPriority(event, subscribers, false);
+    }
+
+    @Override
+    void dispatchBatch(@NonNull List<?> events, @NonNull Subscriber[] subscribers) {
+        enqueueByPriority(events, subscribers, true);
+    }
+
+    private void enqueueByPriority(Object eventOrBatch, Subscriber[] subscribers, boolean batch) {
+        EventPriority eventPriority = priorityOf(eventOrBatch, batch);
+        int firstLane = laneOf(eventPriority, subscribers[0]);
+        boolean sameLane = true;
+        for (int i = 1; i < subscribers.length && sameLane; i++) {
+            sameLane = laneOf(eventPriority, subscribers[i]) == firstLane;
+        }
+        if (sameLane) {
+            enqueue(firstLane, new QueuedEvent(eventOrBatch, subscribers, batch));
+            return;
+        }
+        List<List<Subscriber>> subscribersByLane = Lists.newArrayListWithCapacity(PRIORITIES.length);
+        for (int lane = 0; lane < PRIORITIES.length; lane++) {
+            subscribersByLane.add(Lists.newArrayList());
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscribersByLane.get(laneOf(eventPriority, subscriber)).add(subscriber);
+        }
+        for (int lane = 0; lane < PRIORITIES.length; lane++) {
+            List<Subscriber> laneSubscribers = subscribersByLane.get(lane);
+            if (!laneSubscribers.isEmpty()) {
+                enqueue(lane, new QueuedEvent(eventOrBatch, laneSubscribers.toArray(new Subscriber[0]), batch));
+            }
+        }
+    }
+
+    /**
+     * @return the priority the event asks for, or the lowest priority if it does not ask for one. A batch is as urgent
+     * as its most urgent event.
+     */
+    private static EventPriority priorityOf(Object eventOrBatch, boolean batch) {
+        if (!batch) {
+            return priorityOfEvent(eventOrBatch);
+        }
+        EventPriority priority = EventPriority.LOW;
+        for (Object event : (List<?>) eventOrBatch) {
+            priority = higherOf(priority, priorityOfEvent(event));
+        }
+        return priority;
+    }
+
+    private static EventPriority priorityOfEvent(Object event) {
+        Object unwrapped = SequencedEvent.unwrap(event, false);
+        return unwrapped instanceof PrioritizedEvent
+                ? ((PrioritizedEvent) unwrapped).eventPriority()
+                : EventPriority.LOW;
+    }
+
+    private static int laneOf(EventPriority eventPriority, Subscriber subscriber) {
+        return higherOf(eventPriority, subscriber.getPriority()).ordinal();
+    }
+
+    private static EventPriority higherOf(EventPriority first, EventPriority second) {
+        return first.ordinal() <= second.ordinal() ? first : second;
+    }
+
+    /**
+     * Takes from the highest priority non-empty lane, except that every {@code starvationLimit}-th take starts from the
+     * next of the lower lanes.
+     */
+    private final class FairPoller implements LanePoller {
+        private int takes;
+        private int fairLane = 1;
+
+        @Override
+        public boolean pollOnce() {
+            boolean fairTake = takes == starvationLimit - 1;
+            if (!(fairTake ? pollLowerLanesFirst(fairLane) : pollHighestFirst())) {
+                return false;
+            }
+            takes = fairTake ? 0 : takes + 1;
+            if (fairTake) {
+                fairLane = fairLane == PRIORITIES.length - 1 ? 1 : fairLane + 1;
+            }
+            return true;
+        }
+    }
+
+    private boolean pollHighestFirst() {
+        for (int lane = 0; lane < PRIORITIES.length; lane++) {
+            if (pollLane(lane)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks at the lanes below the highest one starting from {@code firstLane}, wrapping around, and only then at the
+     * highest lane.
+     */
+    private boolean pollLowerLanesFirst(int firstLane) {
+        for (int i = 0; i < PRIORITIES.length - 1; i++) {
+            if (pollLane(1 + (firstLane - 1 + i) % (PRIORITIES.length - 1))) {
+                return true;
+            }
+        }
+        return pollLane(0);
+    }
+
+    int getLaneDepth(EventPriority priority) {
+        return laneDepth(priority.ordinal());
+    }
+
+    long getDeliveredCount(EventPriority priority) {
+        return deliveredCount(priority.ordinal());
+    }
+}
@@ -0,0 +1,201 @@
+package com.trident.load_balancer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * The on-disk layout of a {@link MessageLog.Record}, all integers big-endian:
+ * <pre>
+ * version (1) | key length (4) | key (UTF-8) | append time (8) | tombstone (1) | value length (4) | value | CRC32C (4)
+ * </pre>
+ * The checksum covers every byte before it. The value bytes are whatever the log's {@link Codec} makes of the value,
+ * and are empty for a tombstone.
+ * <p>
+ * Records written before this format were whole Java-serialized {@code Record}s. They start with the serialization
+ * stream magic, which no version byte collides with, so they are still read and are rewritten in this format by the
+ * next compaction or by {@link MessageLog.Segment#migrateLegacySegmentFile}.
+ */
+final class RecordFormat {
+    static final byte VERSION = 1;
+
+    private static final int HEADER_BYTES = 1 + Integer.BYTES;
+
+    private static final int FIXED_BYTES = HEADER_BYTES + Long.BYTES + 1 + Integer.BYTES + Integer.BYTES;
+
+    private static final byte LEGACY_MAGIC_FIRST_BYTE = (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8);
+
+    private RecordFormat() {
+    }
+
+    static <V extends Serializable> byte[] encode(MessageLog.Record<V> record, Codec<V> codec) {
+        byte[] key = record.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] value = record.isTombstone() ? new byte[0] : codec.encode(record.getVal());
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_BYTES + key.length + value.length);
+        buffer.put(VERSION)
+                .putInt(key.length)
+                .put(key)
+                .putLong(record.getAppendTime())
+                .put((byte) (record.isTombstone() ? 1 : 0))
+                .putInt(value.length)
+                .put(value);
+        buffer.putInt(checksumOf(buffer.duplicate().flip()));
+        return buffer.array();
+    }
+
+    /**
+     * Reads the record at the position of {@code buffer}, in either format, and moves the position past it.
+     *
+     * @throws IOException if the bytes are not a whole record or fail their checksum.
+     */
+    static <V extends Serializable> MessageLog.Record<V> read(ByteBuffer buffer, Codec<V> codec) throws IOException {
+        if (isLegacy(buffer)) {
+            return readLegacy(buffer);
+        }
+        ByteBuffer record = nextRecord(buffer);
+        String key = StandardCharsets.UTF_8.decode(slice(record, record.getInt())).toString();
+        long appendTime = record.getLong();
+        boolean tombstone = record.get() == 1;
+        ByteBuffer value = slice(record, record.getInt());
+        return new MessageLog.Record<>(key, appendTime, tombstone ? null : codec.decode(value));
+    }
+
+    /**
+     * Like {@link #read}, but checks and skips the value of a current-format record instead of decoding it.
+     *
+     * @return the key of the record.
+     */
+    static String readKey(ByteBuffer buffer) throws IOException {
+        if (isLegacy(buffer)) {
+            return readLegacy(buffer).getKey();
+        }
+        ByteBuffer record = nextRecord(buffer);
+        return StandardCharsets.UTF_8.decode(slice(record, record.getInt())).toString();
+    }
+
+    /**
+     * @return whether the current-format record at the position of {@code buffer} is a tombstone. The record must have
+     * been checked already.
+     */
+    static boolean isTombstone(ByteBuffer buffer) {
+        int start = buffer.position();
+        return buffer.get(start + HEADER_BYTES + buffer.getInt(start + 1) + Long.BYTES) == 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V extends Serializable> MessageLog.Record<V> readLegacy(ByteBuffer buffer) throws IOException {
+        Object record = readObject(buffer);
+        if (!(record instanceof MessageLog.Record)) {
+            throw new IOException("Legacy bytes do not hold a record: " + record);
+        }
+        return (MessageLog.Record<V>) record;
+    }
+
+    /**
+     * Checks the current-format record at the position of {@code buffer} and moves the position past it.
+     *
+     * @return a view of the record, positioned just after its version byte.
+     */
+    private static ByteBuffer nextRecord(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int end = start + lengthOf(buffer);
+        ByteBuffer record = buffer.duplicate().limit(end);
+        buffer.position(end);
+        ByteBuffer checked = record.duplicate().limit(end - Integer.BYTES);
+        if (checksumOf(checked) != record.getInt(end - Integer.BYTES)) {
+            throw new IOException("Checksum mismatch in the record at " + start);
+        }
+        return record.position(start + 1);
+    }
+
+    /**
+     * @return the length of the current-format record at the position of {@code buffer}, checked against what the
+     * buffer holds so a torn or corrupt record never reads past it.
+     */
+    private static int lengthOf(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_BYTES) {
+            throw new IOException("Truncated record header at " + start);
+        }
+        if (buffer.get(start) != VERSION) {
+            throw new IOException("Unsupported record format version " + buffer.get(start) + " at " + start);
+        }
+        long keyLength = buffer.getInt(start + 1);
+        long valueLengthAt = start + HEADER_BYTES + keyLength + Long.BYTES + 1;
+        if (keyLength < 0 || valueLengthAt + Integer.BYTES > buffer.limit()) {
+            throw new IOException("Truncated record at " + start);
+        }
+        long valueLength = buffer.getInt((int) valueLengthAt);
+        long length = FIXED_BYTES + keyLength + valueLength;
+        if (valueLength < 0 || start + length > buffer.limit()) {
+            throw new IOException("Truncated record at " + start);
+        }
+        return (int) length;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    private static int checksumOf(ByteBuffer bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    static boolean isLegacy(ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == LEGACY_MAGIC_FIRST_BYTE;
+    }
+
+    /**
+     * Reads one Java serialization stream from {@code buffer}, leaving the buffer positioned just after it.
+     */
+    static Object readObject(ByteBuffer buffer) throws IOException {
+        try {
+            return new ObjectInputStream(new ByteBufferInputStream(buffer)).readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Could not deserialize an object", e);
+        }
+    }
+
+    /**
+     * Reads from a buffer without copying it first.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
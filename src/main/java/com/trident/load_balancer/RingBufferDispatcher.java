@@ -0,0 +1,236 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Disruptor-style dispatcher. Posting threads claim a sequence, copy the event into a preallocated slot and publish the
+ * sequence; a single consumer thread follows the published sequences and delivers each slot in order. Slots are reused
+ * on every lap of the ring, so posting does not allocate. A full ring makes posting threads wait for the consumer.
+ */
+@Slf4j
+final class RingBufferDispatcher extends Dispatcher {
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final int SPIN_TRIES = 100;
+
+    private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final EventSlot[] slots;
+    private final int mask;
+    private final int indexShift;
+    /**
+     * The lap in which each slot was last published, which lets the consumer tell published slots from claimed ones
+     * without a shared cursor.
+     */
+    private final AtomicIntegerArray publishedLaps;
+    private final ClaimStrategy claimStrategy;
+    private final WaitStrategy waitStrategy;
+    private final AtomicLong claimSequence = new AtomicLong(-1);
+    private final AtomicLong consumerSequence = new AtomicLong(-1);
+    private final AtomicBoolean consumerParked = new AtomicBoolean();
+    private final Thread consumer;
+    private long singleProducerSequence = -1;
+    private volatile boolean running = true;
+
+    RingBufferDispatcher(int requestedBufferSize, @NonNull ClaimStrategy claimStrategy, @NonNull WaitStrategy waitStrategy) {
+        Preconditions.checkArgument(requestedBufferSize > 1, "Buffer size must be greater than one");
+        int bufferSize = Integer.highestOneBit(requestedBufferSize - 1) << 1;
+        this.slots = new EventSlot[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            slots[i] = new EventSlot();
+        }
+        this.mask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        this.publishedLaps = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++) {
+            publishedLaps.set(i, -1);
+        }
+        this.claimStrategy = claimStrategy;
+        this.waitStrategy = waitStrategy;
+        this.consumer = new ThreadFactoryBuilder()
+                .setNameFormat("ring-buffer-dispatcher-%d")
+                .setDaemon(true)
+                .build()
+                .newThread(this::consume);
+        consumer.start();
+    }
+
+    @Override
+    void dispatch(@NonNull Object event, @NonNull Subscriber[] subscribers) {
+        claimAndPublish(event, subscribers, false);
+    }
+
+    @Override
+    void dispatchBatch(@NonNull List<?> events, @NonNull Subscriber[] subscribers) {
+        claimAndPublish(events, subscribers, true);
+    }
+
+    private void claimAndPublish(Object eventOrBatch, Subscriber[] subscribers, boolean batch) {
+        Preconditions.checkState(running, "Dispatcher has been stopped");
+        long sequence = claim();
+        waitForFreeSlot(sequence);
+        EventSlot slot = slots[(int) sequence & mask];
+        slot.event = eventOrBatch;
+        slot.subscribers = subscribers;
+        slot.batch = batch;
+        publish(sequence);
+    }
+
+    private long claim() {
+        if (claimStrategy == ClaimStrategy.SINGLE_PRODUCER) {
+            return ++singleProducerSequence;
+        }
+        return claimSequence.incrementAndGet();
+    }
+
+    private void waitForFreeSlot(long sequence) {
+        long wrapPoint = sequence - slots.length;
+        for (int attempt = 0; wrapPoint > consumerSequence.get(); attempt++) {
+            Preconditions.checkState(running, "Dispatcher has been stopped");
+            if (attempt < SPIN_TRIES || waitStrategy == WaitStrategy.BUSY_SPIN) {
+                Thread.onSpinWait();
+            } else if (waitStrategy == WaitStrategy.YIELDING) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+            }
+        }
+    }
+
+    private void publish(long sequence) {
+        publishedLaps.set((int) sequence & mask, (int) (sequence >>> indexShift));
+        if (waitStrategy == WaitStrategy.BLOCKING && consumerParked.get() && consumerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return publishedLaps.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    private void consume() {
+        long next = consumerSequence.get() + 1;
+        int attempt = 0;
+        while (running || isPublished(next)) {
+            if (isPublished(next)) {
+                EventSlot slot = slots[(int) next & mask];
+                Object event = slot.event;
+                Subscriber[] subscribers = slot.subscribers;
+                boolean batch = slot.batch;
+                slot.event = null;
+                slot.subscribers = null;
+                consumerSequence.lazySet(next++);
+                deliverAll(event, subscribers, batch);
+                attempt = 0;
+            } else {
+                waitForPublish(next, attempt++);
+            }
+        }
+    }
+
+    private void waitForPublish(long sequence, int attempt) {
+        if (attempt < SPIN_TRIES || waitStrategy == WaitStrategy.BUSY_SPIN) {
+            Thread.onSpinWait();
+        } else if (waitStrategy == WaitStrategy.YIELDING) {
+            Thread.yield();
+        } else {
+            consumerParked.set(true);
+            if (!isPublished(sequence) && running) {
+                LockSupport.park(this);
+            }
+            consumerParked.set(false);
+        }
+    }
+
+    private void deliverAll(Object event, Subscriber[] subscribers, boolean batch) {
+        for (Subscriber subscriber : subscribers) {
+            try {
+                deliver(subscriber, event, batch);
+            } catch (RuntimeException e) {
+                log.error("Could not hand event " + event + " to subscriber " + subscriber.getMethod(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting events. The consumer exits once the events already published have been delivered.
+     */
+    @Override
+    void stop() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * @return true once the consumer thread has exited.
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        consumer.join(unit.toMillis(timeout));
+        return !consumer.isAlive();
+    }
+
+    int getBufferSize() {
+        return slots.length;
+    }
+
+    /**
+     * @return the number of claimed slots the consumer has not released yet.
+     */
+    long getBacklog() {
+        long claimed = claimStrategy == ClaimStrategy.SINGLE_PRODUCER ? singleProducerSequence : claimSequence.get();
+        return Math.max(0, claimed - consumerSequence.get());
+    }
+
+    @Override
+    int getQueueDepth() {
+        return (int) getBacklog();
+    }
+
+    /**
+     * How posting threads claim sequences.
+     */
+    enum ClaimStrategy {
+        /**
+         * Only one thread ever posts, so claiming is a plain increment.
+         */
+        SINGLE_PRODUCER,
+        /**
+         * Any thread may post; sequences are claimed with an atomic increment.
+         */
+        MULTI_PRODUCER
+    }
+
+    /**
+     * How the consumer waits for the next sequence to be published and posting threads wait for a free slot.
+     */
+    enum WaitStrategy {
+        /**
+         * Spin on the sequence. Lowest latency, burns a core.
+         */
+        BUSY_SPIN,
+        /**
+         * Spin briefly, then yield the processor between checks.
+         */
+        YIELDING,
+        /**
+         * Spin briefly, then park until a posting thread wakes the consumer up.
+         */
+        BLOCKING
+    }
+
+    private static final class EventSlot {
+        private Object event;
+        private Subscriber[] subscribers;
+        private boolean batch;
+    }
+}
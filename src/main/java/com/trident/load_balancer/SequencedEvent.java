@@ -0,0 +1,50 @@
+package com.trident.load_balancer;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An event travelling through the dispatcher together with the sequence number it was logged under. Subscribers unwrap
+ * it before invoking the subscriber method and acknowledge the sequence to the bus afterwards.
+ */
+@Data
+class SequencedEvent {
+    private final long sequence;
+    private final Object event;
+
+    static SequencedEvent of(long sequence, Object event) {
+        return event instanceof KeyedEvent ? new Keyed(sequence, event) : new SequencedEvent(sequence, event);
+    }
+
+    /**
+     * @return {@code argument} with any sequenced events replaced by the events they wrap. A batch argument is a list
+     * whose elements are either all sequenced or none.
+     */
+    static Object unwrap(Object argument, boolean batch) {
+        if (batch) {
+            List<?> events = (List<?>) argument;
+            if (!events.isEmpty() && events.get(0) instanceof SequencedEvent) {
+                return events.stream().map(event -> ((SequencedEvent) event).getEvent()).collect(Collectors.toList());
+            }
+        } else if (argument instanceof SequencedEvent) {
+            return ((SequencedEvent) argument).getEvent();
+        }
+        return argument;
+    }
+
+    /**
+     * Keeps the partition key of the wrapped event visible to a {@link KeyedDispatcher}.
+     */
+    static final class Keyed extends SequencedEvent implements KeyedEvent {
+        Keyed(long sequence, Object event) {
+            super(sequence, event);
+        }
+
+        @Override
+        public Object partitionKey() {
+            return ((KeyedEvent) getEvent()).partitionKey();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * An event bus split into shards, one per core by default, each with its own dispatcher and its own replica of the
+ * dispatch tables. Every posting thread is pinned to one shard the first time it posts, round-robin, so threads posting
+ * at the same time touch neither a shared queue nor a shared table. Events posted by one thread are delivered in the
+ * order they were posted; a thread whose shard queue is full waits for room.
+ * <p>
+ * Listeners are registered once, in the bus-wide {@link SubscriptionRegistry}, so every shard hands events to the same
+ * subscriber instances and serial subscribers stay serial across shards. Registration is the only time shards are
+ * coordinated: it drops every replica, and each shard rebuilds its entries from the registry on its next posts.
+ */
+public class ShardedEventBus extends EventBus {
+    private final ShardedDispatcher shardedDispatcher;
+
+    /**
+     * Creates a bus with a shard per core, each delivering from a single worker thread.
+     */
+    public ShardedEventBus(String identifier) {
+        this(
+                identifier,
+                MoreExecutors.directExecutor(),
+                LoggingHandler.INSTANCE,
+                Runtime.getRuntime().availableProcessors(),
+                () -> newShardDispatcher(AsyncDispatcher.DEFAULT_QUEUE_CAPACITY)
+        );
+    }
+
+    /**
+     * @return a single-worker dispatcher that blocks posters on a full queue. Delivering on the posting thread instead
+     * would let an event overtake the poster's earlier events still queued, and dropping would lose them.
+     */
+    static Dispatcher newShardDispatcher(int queueCapacity) {
+        return new AsyncDispatcher(queueCapacity, 1, BackpressurePolicy.BLOCK);
+    }
+
+    ShardedEventBus(
+            String identifier,
+            Executor executor,
+            SubscriptionExceptionHandler subscriptionExceptionHandler,
+            int shardCount,
+            Supplier<Dispatcher> dispatcherFactory
+    ) {
+        this(identifier, executor, subscriptionExceptionHandler, new ShardedDispatcher(createShards(shardCount, dispatcherFactory)));
+    }
+
+    private ShardedEventBus(
+            String identifier,
+            Executor executor,
+            SubscriptionExceptionHandler subscriptionExceptionHandler,
+            ShardedDispatcher shardedDispatcher
+    ) {
+        super(identifier, executor, subscriptionExceptionHandler, shardedDispatcher);
+        this.shardedDispatcher = shardedDispatcher;
+    }
+
+    private static ImmutableList<Shard> createShards(int shardCount, Supplier<Dispatcher> dispatcherFactory) {
+        Preconditions.checkArgument(shardCount > 0, "Shard count must be positive");
+        ImmutableList.Builder<Shard> shards = ImmutableList.builder();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new Shard(dispatcherFactory.get()));
+        }
+        return shards.build();
+    }
+
+    @Override
+    Subscriber[] subscribersOf(Class<?> eventClass) {
+        Shard shard = shardedDispatcher.currentShard();
+        Map<Class<?>, Subscriber[]> tables = shard.dispatchTables;
+        Subscriber[] subscribers = tables.get(eventClass);
+        if (subscribers == null) {
+            subscribers = super.subscribersOf(eventClass);
+            tables.putIfAbsent(eventClass, subscribers);
+        }
+        return subscribers;
+    }
+
+    @Override
+    void subscribersAdded(Multimap<Class<?>, Subscriber> addedSubscribers) {
+        invalidateReplicas();
+        super.subscribersAdded(addedSubscribers);
+    }
+
+    @Override
+    void subscribersRemoved(Multimap<Class<?>, Subscriber> removedSubscribers) {
+        invalidateReplicas();
+        super.subscribersRemoved(removedSubscribers);
+    }
+
+    /**
+     * Must be called after the change has been applied to the registry. A poster that filled a replica from the
+     * registry before the change puts its entry into the replica being dropped, never into the new one.
+     */
+    private void invalidateReplicas() {
+        shardedDispatcher.shards.forEach(shard -> shard.dispatchTables = Maps.newConcurrentMap());
+    }
+
+    int getShardCount() {
+        return shardedDispatcher.shards.size();
+    }
+
+    private static final class Shard {
+        private final Dispatcher dispatcher;
+        /**
+         * Replica of the registry's dispatch tables, filled in lazily by the threads pinned to this shard and replaced
+         * wholesale on registration changes.
+         */
+        private volatile Map<Class<?>, Subscriber[]> dispatchTables = Maps.newConcurrentMap();
+
+        private Shard(Dispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+    }
+
+    /**
+     * Pins posting threads to shards and hands every event to the dispatcher of the posting thread's shard.
+     */
+    private static final class ShardedDispatcher extends Dispatcher {
+        private final ImmutableList<Shard> shards;
+        private final AtomicInteger nextShard = new AtomicInteger();
+        private final ThreadLocal<Shard> threadShard = ThreadLocal.withInitial(this::assignShard);
+
+        private ShardedDispatcher(ImmutableList<Shard> shards) {
+            this.shards = shards;
+        }
+
+        private Shard assignShard() {
+            return shards.get(Math.floorMod(nextShard.getAndIncrement(), shards.size()));
+        }
+
+        Shard currentShard() {
+            return threadShard.get();
+        }
+
+        @Override
+        void dispatch(@NonNull Object event, @NonNull Subscriber[] subscribers) {
+            currentShard().dispatcher.dispatch(event, subscribers);
+        }
+
+        @Override
+        void dispatchBatch(@NonNull List<?> events, @NonNull Subscriber[] subscribers) {
+            currentShard().dispatcher.dispatchBatch(events, subscribers);
+        }
+
+        @Override
+        int getQueueDepth() {
+            int depth = 0;
+            for (Shard shard : shards) {
+                depth += shard.dispatcher.getQueueDepth();
+            }
+            return depth;
+        }
+
+        @Override
+        long getDroppedCount() {
+            long dropped = 0;
+            for (Shard shard : shards) {
+                dropped += shard.dispatcher.getDroppedCount();
+            }
+            return dropped;
+        }
+
+        @Override
+        long getCallerRunsCount() {
+            long callerRuns = 0;
+            for (Shard shard : shards) {
+                callerRuns += shard.dispatcher.getCallerRunsCount();
+            }
+            return callerRuns;
+        }
+
+        @Override
+        void stop() {
+            shards.forEach(shard -> shard.dispatcher.stop());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Keeps the latest event posted per event class and, for {@link KeyedEvent}s, per partition key, so that listeners
+ * registered later can be brought up to date straight away. Holds at most {@code maximumSize} events, evicting the least
+ * recently posted first.
+ */
+final class StickyEventCache {
+    private final Cache<StickyKey, Object> latestEvents;
+
+    StickyEventCache(int maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0, "Sticky event cache size must be positive");
+        this.latestEvents = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    void put(Object event) {
+        Object partitionKey = event instanceof KeyedEvent ? ((KeyedEvent) event).partitionKey() : null;
+        latestEvents.put(new StickyKey(event.getClass(), partitionKey), event);
+    }
+
+    /**
+     * Hands every cached event to the subscribers in {@code subscribersByEventType} whose event type it is an instance
+     * of. An event posted while the replay is running may reach a subscriber before the older cached event does.
+     */
+    void replay(Multimap<Class<?>, Subscriber> subscribersByEventType) {
+        if (subscribersByEventType.isEmpty()) {
+            return;
+        }
+        for (Object event : ImmutableList.copyOf(latestEvents.asMap().values())) {
+            subscribersByEventType.asMap().forEach((eventType, subscribers) -> {
+                if (eventType.isInstance(event)) {
+                    subscribers.forEach(subscriber -> subscriber.dispatchEvent(event));
+                }
+            });
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static final class StickyKey {
+        private final Class<?> eventClass;
+        private final Object partitionKey;
+    }
+}
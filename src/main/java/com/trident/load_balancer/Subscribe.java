@@ -8,4 +8,37 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Subscribe {
+    /**
+     * When true the method takes a {@code List<T>} and receives every event of type {@code T} handed over by one
+     * {@link EventBus#postAll} call in a single invocation. Single posts arrive as a list of one.
+     */
+    boolean batch() default false;
+
+    /**
+     * Priority of deliveries to this method under a {@link PriorityDispatcher}. Events implementing
+     * {@link PrioritizedEvent} are delivered at the higher of the two priorities.
+     */
+    EventPriority priority() default EventPriority.NORMAL;
+
+    /**
+     * Only {@link KeyedEvent}s whose partition key, as a string, is one of these are delivered to this method. Empty
+     * means every key.
+     */
+    String[] keys() default {};
+
+    /**
+     * Only events this filter accepts are delivered to this method. Filters run on the dispatching thread before the
+     * executor hand-off, so rejected events never reach the executor. Batch methods receive the accepted events of
+     * each batch and are not invoked if there are none.
+     */
+    Class<? extends EventFilter<?>> filter() default EventFilter.AcceptAll.class;
+
+    /**
+     * When true only the latest pending event per key is delivered: an event replaces any older event with the same key
+     * that has not been delivered yet. Keys are the partition keys of {@link KeyedEvent}s and the class of other events.
+     * Events of one key are delivered one at a time and in order, and different keys in parallel as far as the executor
+     * allows, whether or not the method is marked {@link ConcurrentEventsAllowed}. Cannot be combined with
+     * {@link #batch()}.
+     */
+    boolean coalesce() default false;
 }
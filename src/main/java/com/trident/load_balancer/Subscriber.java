@@ -1,65 +1,406 @@
 package com.trident.load_balancer;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 @Data
 public class Subscriber {
+    private static final Executor DIRECT_EXECUTOR = MoreExecutors.directExecutor();
+
     private final Object target;
     private final Method method;
+    private final SubscriberInvoker invoker;
     private final Executor executor;
     private final EventBus eventBus;
+    private final boolean batch;
+    private final EventPriority priority;
+    /**
+     * Null if the subscriber accepts every event.
+     */
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final EventFilter<Object> filter;
+    @Getter(AccessLevel.PACKAGE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final SubscriberMetrics metrics = new SubscriberMetrics();
 
-    private Subscriber(EventBus eventBus, Object target, Method method) {
+    private Subscriber(EventBus eventBus, Object target, Method method, SubscriberInvoker invoker) {
         this.eventBus = eventBus;
         this.target = target;
         this.method = method;
-        this.method.setAccessible(true);
+        this.invoker = invoker;
         this.executor = eventBus.getExecutor();
+        this.batch = isBatchMethod(method);
+        this.priority = priorityOf(method);
+        this.filter = EventFilters.forMethod(method);
     }
 
-    static Subscriber getInstance(EventBus eventBus, Object target, Method method) {
-        if (methodIsThreadSafe(method)) {
-            return new Subscriber(eventBus, target, method);
+    static Subscriber getInstance(EventBus eventBus, Object target, Method method, SubscriberInvoker invoker) {
+        Subscribe subscribe = method.getAnnotation(Subscribe.class);
+        if (subscribe != null && subscribe.coalesce()) {
+            return new CoalescingSubscriber(eventBus, target, method, invoker);
+        }
+        ConcurrentEventsAllowed concurrentEventsAllowed = method.getAnnotation(ConcurrentEventsAllowed.class);
+        if (concurrentEventsAllowed == null) {
+            return new SerialSubscriber(eventBus, target, method, invoker);
+        } else if (concurrentEventsAllowed.maxConcurrency() < Integer.MAX_VALUE) {
+            return new ConcurrencyLimitedSubscriber(eventBus, target, method, invoker, concurrentEventsAllowed.maxConcurrency());
         }
-        return new SynchronizedSubscriber(eventBus, target, method);
+        return new Subscriber(eventBus, target, method, invoker);
+    }
+
+    static boolean isBatchMethod(Method method) {
+        Subscribe subscribe = method.getAnnotation(Subscribe.class);
+        return subscribe != null && subscribe.batch();
     }
 
-    private static boolean methodIsThreadSafe(Method method) {
-        return method.isAnnotationPresent(ConcurrentEventsAllowed.class);
+    private static EventPriority priorityOf(Method method) {
+        Subscribe subscribe = method.getAnnotation(Subscribe.class);
+        return subscribe == null ? EventPriority.NORMAL : subscribe.priority();
     }
 
+    /**
+     * Delivers {@code event} unless the subscriber's filter rejects it. Rejected events are acknowledged to the bus right
+     * away, as if they had been delivered.
+     */
     final void dispatchEvent(@NonNull Object event) {
-        executor.execute(() -> {
-            try {
-                invokeSubscriptionMethod(event);
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                eventBus.handleInvocationException(e.getCause(), new SubscriberExceptionContext(event, target, method));
+        if (filter != null && !filter.accepts(SequencedEvent.unwrap(event, false))) {
+            skip(event);
+        } else if (batch) {
+            handOffBatch(Collections.singletonList(event));
+        } else {
+            handOffEvent(event);
+        }
+    }
+
+    /**
+     * Delivers the events of {@code events} the subscriber's filter accepts with a single executor hand-off: batch
+     * methods are invoked once with the whole list, other methods once per event.
+     */
+    final void dispatchBatch(@NonNull List<?> events) {
+        List<?> accepted = filter == null ? events : accepted(events);
+        if (!accepted.isEmpty()) {
+            handOffBatch(accepted);
+        }
+    }
+
+    private List<?> accepted(List<?> events) {
+        List<Object> accepted = Lists.newArrayListWithCapacity(events.size());
+        for (Object event : events) {
+            if (filter.accepts(SequencedEvent.unwrap(event, false))) {
+                accepted.add(event);
+            } else {
+                skip(event);
             }
+        }
+        return accepted.size() == events.size() ? events : accepted;
+    }
+
+    private void skip(Object event) {
+        metrics.recordFilteredOut();
+        acknowledgeUndelivered(event);
+    }
+
+    /**
+     * Acknowledges an event that will never be delivered to this subscriber, as if it had been.
+     */
+    final void acknowledgeUndelivered(Object event) {
+        if (event instanceof SequencedEvent) {
+            eventBus.acknowledgeDelivery(this, ((SequencedEvent) event).getSequence());
+        }
+    }
+
+    void handOffEvent(Object event) {
+        long handedOffAt = handOffTime();
+        execute(() -> {
+            recordExecutorWait(handedOffAt);
+            invokeAndHandleException(event);
+        });
+    }
+
+    void handOffBatch(List<?> events) {
+        long handedOffAt = handOffTime();
+        execute(() -> {
+            recordExecutorWait(handedOffAt);
+            deliverBatch(events);
         });
     }
 
-    void invokeSubscriptionMethod(Object event) throws InvocationTargetException, IllegalAccessException {
-        method.invoke(target, event);
+    private void deliverBatch(List<?> events) {
+        if (batch) {
+            invokeAndHandleException(events);
+        } else {
+            for (Object event : events) {
+                invokeAndHandleException(event);
+            }
+        }
+    }
+
+    final void execute(Runnable delivery) {
+        if (executor == DIRECT_EXECUTOR) {
+            delivery.run();
+        } else {
+            executor.execute(delivery);
+        }
+    }
+
+    /**
+     * @return the time a delivery handed to the executor now is handed off, or 0 if the executor runs it inline.
+     * Deliveries capture it and pass it to {@link #recordExecutorWait} once they start, so measuring the wait does not
+     * take an allocation of its own.
+     */
+    final long handOffTime() {
+        return executor == DIRECT_EXECUTOR ? 0L : System.nanoTime();
+    }
+
+    final void recordExecutorWait(long handedOffAt) {
+        if (handedOffAt != 0L) {
+            eventBus.getMetrics().recordExecutorWait(System.nanoTime() - handedOffAt);
+        }
+    }
+
+    final void invokeAndHandleException(Object argument) {
+        Object eventOrBatch = SequencedEvent.unwrap(argument, batch);
+        Throwable failure = null;
+        long startedAt = System.nanoTime();
+        try {
+            invokeSubscriptionMethod(eventOrBatch);
+        } catch (Throwable e) {
+            failure = e;
+        }
+        metrics.recordInvocation(System.nanoTime() - startedAt, failure != null);
+        if (failure != null) {
+            eventBus.handleInvocationException(failure, new SubscriberExceptionContext(eventOrBatch, target, method));
+        }
+        if (eventOrBatch != argument) {
+            acknowledge(argument);
+        }
+    }
+
+    private void acknowledge(Object sequencedArgument) {
+        if (batch) {
+            for (Object event : (List<?>) sequencedArgument) {
+                eventBus.acknowledgeDelivery(this, ((SequencedEvent) event).getSequence());
+            }
+        } else {
+            eventBus.acknowledgeDelivery(this, ((SequencedEvent) sequencedArgument).getSequence());
+        }
+    }
+
+    void invokeSubscriptionMethod(Object event) throws Throwable {
+        invoker.invoke(target, event);
+    }
+
+    /**
+     * @return the listener class and method name, e.g. {@code com.example.Listener#onEvent}.
+     */
+    String describe() {
+        return target.getClass().getName() + "#" + method.getName();
+    }
+
+    SubscriberStats getStats() {
+        return metrics.toStats(describe());
     }
 
-    static final class SynchronizedSubscriber extends Subscriber {
+    /**
+     * Delivers events one at a time, in the order they were dispatched, without ever blocking a thread. Each delivery is
+     * appended to a lock-free mailbox; the thread whose append finds the mailbox idle schedules a single drain on the
+     * executor, and every other append just leaves its event for that drain.
+     */
+    static final class SerialSubscriber extends Subscriber {
+        private final Queue<Object> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicInteger mailboxDepth = new AtomicInteger();
+        private final AtomicInteger peakMailboxDepth = new AtomicInteger();
+        private final LongAdder deliveries = new LongAdder();
+        private final LongAdder contendedDeliveries = new LongAdder();
 
-        public SynchronizedSubscriber(EventBus eventBus, Object target, Method method) {
-            super(eventBus, target, method);
+        public SerialSubscriber(EventBus eventBus, Object target, Method method, SubscriberInvoker invoker) {
+            super(eventBus, target, method, invoker);
         }
 
         @Override
-        void invokeSubscriptionMethod(Object event) throws InvocationTargetException, IllegalAccessException {
-            synchronized (this) {
-                super.invokeSubscriptionMethod(event);
+        void handOffEvent(Object event) {
+            enqueue(event);
+            scheduleDrain();
+        }
+
+        @Override
+        void handOffBatch(List<?> events) {
+            if (isBatch()) {
+                enqueue(events);
+            } else {
+                events.forEach(this::enqueue);
+            }
+            scheduleDrain();
+        }
+
+        private void enqueue(Object argument) {
+            mailbox.add(argument);
+            deliveries.increment();
+            int depth = mailboxDepth.incrementAndGet();
+            if (depth > peakMailboxDepth.get()) {
+                peakMailboxDepth.accumulateAndGet(depth, Math::max);
+            }
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                long handedOffAt = handOffTime();
+                execute(() -> {
+                    recordExecutorWait(handedOffAt);
+                    drain();
+                });
+            } else {
+                contendedDeliveries.increment();
+            }
+        }
+
+        private void drain() {
+            do {
+                Object argument;
+                while ((argument = mailbox.poll()) != null) {
+                    mailboxDepth.decrementAndGet();
+                    invokeAndHandleException(argument);
+                }
+                draining.set(false);
+            } while (!mailbox.isEmpty() && draining.compareAndSet(false, true));
+        }
+
+        MailboxStats getMailboxStats() {
+            return new MailboxStats(
+                    describe(),
+                    deliveries.sum(),
+                    contendedDeliveries.sum(),
+                    mailboxDepth.get(),
+                    peakMailboxDepth.get()
+            );
+        }
+    }
+
+    /**
+     * Delivers only the latest pending event per key. An event posted while an older one with the same key is still
+     * pending replaces it, so a subscriber that falls behind skips the stale intermediate events and its backlog never
+     * holds more than one event per key. Keys are the partition keys of {@link KeyedEvent}s and the class of any other
+     * event, or of a keyed event whose partition key is null.
+     * <p>
+     * Every key is drained on its own, with the same lock-free draining flag as {@link SerialSubscriber}: events of one
+     * key are delivered one at a time and in order, while different keys are delivered in parallel as far as the
+     * executor allows.
+     */
+    static final class CoalescingSubscriber extends Subscriber {
+        /**
+         * The slot of every key seen so far. Slots are never removed, so two drains of one key can never run at once;
+         * keys are expected to be few, like the nodes of a cluster.
+         */
+        private final Map<Object, PendingEvent> pendingByKey = Maps.newConcurrentMap();
+
+        public CoalescingSubscriber(EventBus eventBus, Object target, Method method, SubscriberInvoker invoker) {
+            super(eventBus, target, method, invoker);
+            Preconditions.checkArgument(!isBatch(), "Batch subscriber %s cannot coalesce events", method);
+        }
+
+        @Override
+        void handOffEvent(Object event) {
+            scheduleDrain(coalesce(event));
+        }
+
+        @Override
+        void handOffBatch(List<?> events) {
+            for (Object event : events) {
+                scheduleDrain(coalesce(event));
+            }
+        }
+
+        private PendingEvent coalesce(Object event) {
+            Object key = keyOf(SequencedEvent.unwrap(event, false));
+            PendingEvent pending = pendingByKey.get(key);
+            if (pending == null) {
+                pending = pendingByKey.computeIfAbsent(key, k -> new PendingEvent());
+            }
+            Object replaced = pending.event.getAndSet(event);
+            if (replaced != null) {
+                getMetrics().recordCoalesced();
+                acknowledgeUndelivered(replaced);
             }
+            return pending;
+        }
+
+        /**
+         * @return the partition key of a {@link KeyedEvent}, or the event's class if it has none. Null partition keys
+         * are accepted, as the {@link KeyedDispatcher} does, and share the key of the class.
+         */
+        private static Object keyOf(Object event) {
+            Object key = event instanceof KeyedEvent ? ((KeyedEvent) event).partitionKey() : null;
+            return key == null ? event.getClass() : key;
+        }
+
+        private void scheduleDrain(PendingEvent pending) {
+            if (pending.draining.compareAndSet(false, true)) {
+                long handedOffAt = handOffTime();
+                execute(() -> {
+                    recordExecutorWait(handedOffAt);
+                    drain(pending);
+                });
+            }
+        }
+
+        private void drain(PendingEvent pending) {
+            do {
+                Object event;
+                while ((event = pending.event.getAndSet(null)) != null) {
+                    invokeAndHandleException(event);
+                }
+                pending.draining.set(false);
+            } while (pending.event.get() != null && pending.draining.compareAndSet(false, true));
+        }
+
+        private static final class PendingEvent {
+            private final AtomicReference<Object> event = new AtomicReference<>();
+            private final AtomicBoolean draining = new AtomicBoolean();
         }
     }
 
+    static final class ConcurrencyLimitedSubscriber extends Subscriber {
+        private final Semaphore permits;
 
+        public ConcurrencyLimitedSubscriber(EventBus eventBus, Object target, Method method, SubscriberInvoker invoker, int maxConcurrency) {
+            super(eventBus, target, method, invoker);
+            Preconditions.checkArgument(maxConcurrency > 0, "Max concurrency of %s must be positive", method);
+            this.permits = new Semaphore(maxConcurrency);
+        }
+
+        @Override
+        void invokeSubscriptionMethod(Object event) throws Throwable {
+            permits.acquire();
+            try {
+                super.invokeSubscriptionMethod(event);
+            } finally {
+                permits.release();
+            }
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.Sets;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copy-on-write set of subscribers backed by an immutable array that is swapped atomically. Reads are a single volatile
+ * load; each mutation applies a whole batch of subscribers with one copy, deduplicating by identity, so adding or
+ * removing {@code k} subscribers from a set of {@code n} costs {@code O(n + k)}.
+ */
+final class SubscriberArray {
+    private static final Subscriber[] EMPTY = new Subscriber[0];
+
+    private final AtomicReference<Subscriber[]> subscribers = new AtomicReference<>(EMPTY);
+
+    /**
+     * @return the current subscribers. The array is shared and must not be modified.
+     */
+    Subscriber[] get() {
+        return subscribers.get();
+    }
+
+    /**
+     * Appends every subscriber in {@code toAdd} that is not already present.
+     */
+    void addAll(Collection<Subscriber> toAdd) {
+        Subscriber[] candidates = distinct(toAdd);
+        Subscriber[] current;
+        Subscriber[] updated;
+        do {
+            current = subscribers.get();
+            Subscriber[] added = withoutPresent(candidates, current);
+            if (added.length == 0) {
+                return;
+            }
+            updated = Arrays.copyOf(current, current.length + added.length);
+            System.arraycopy(added, 0, updated, current.length, added.length);
+        } while (!subscribers.compareAndSet(current, updated));
+    }
+
+    /**
+     * Removes every subscriber in {@code toRemove}, compared by identity.
+     */
+    void removeAll(Collection<Subscriber> toRemove) {
+        Set<Subscriber> removed = Sets.newIdentityHashSet();
+        removed.addAll(toRemove);
+        Subscriber[] current;
+        Subscriber[] updated;
+        do {
+            current = subscribers.get();
+            updated = new Subscriber[current.length];
+            int size = 0;
+            for (Subscriber subscriber : current) {
+                if (!removed.contains(subscriber)) {
+                    updated[size++] = subscriber;
+                }
+            }
+            if (size == current.length) {
+                return;
+            }
+            updated = size == 0 ? EMPTY : Arrays.copyOf(updated, size);
+        } while (!subscribers.compareAndSet(current, updated));
+    }
+
+    private static Subscriber[] distinct(Collection<Subscriber> subscribers) {
+        Set<Subscriber> seen = Sets.newIdentityHashSet();
+        return subscribers.stream().filter(seen::add).toArray(Subscriber[]::new);
+    }
+
+    /**
+     * @return the subscribers in {@code candidates} that are not in {@code present}, hashing the candidates so that
+     * {@code present} is scanned once.
+     */
+    private static Subscriber[] withoutPresent(Subscriber[] candidates, Subscriber[] present) {
+        Set<Subscriber> remaining = Sets.newIdentityHashSet();
+        Collections.addAll(remaining, candidates);
+        for (Subscriber subscriber : present) {
+            remaining.remove(subscriber);
+        }
+        return Arrays.stream(candidates).filter(remaining::contains).toArray(Subscriber[]::new);
+    }
+}
@@ -0,0 +1,42 @@
+package com.trident.load_balancer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors suited to running subscriber methods.
+ */
+@Slf4j
+final class SubscriberExecutors {
+
+    private SubscriberExecutors() {
+    }
+
+    /**
+     * @return an executor that starts a virtual thread for every delivery, so subscribers that block on I/O do not tie
+     * up platform threads. The project targets Java 11, so the JDK factory is looked up at runtime; on a JDK without
+     * virtual threads this falls back to an unbounded pool of daemon platform threads.
+     */
+    static ExecutorService virtualThreadPerDelivery() {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(
+                    Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class)
+            );
+            return (ExecutorService) factory.invokeExact();
+        } catch (Throwable e) {
+            log.warn("Virtual threads are not available on this JVM, delivering on pooled platform threads instead");
+            return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("subscriber-delivery-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.trident.load_balancer;
+
+import java.util.List;
+
+/**
+ * Subscriber methods of one listener class, generated at compile time by the subscriber index processor as
+ * {@code <Listener>$$SubscriberIndex}. Lets the registry skip scanning the listener for {@link Subscribe} methods and
+ * invoke them without reflection.
+ */
+public interface SubscriberIndex {
+    String SUFFIX = "$$SubscriberIndex";
+
+    List<SubscriberMethod> getSubscriberMethods() throws ReflectiveOperationException;
+}
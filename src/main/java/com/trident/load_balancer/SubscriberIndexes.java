@@ -0,0 +1,47 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+
+/**
+ * Looks up the generated {@link SubscriberIndex} of listener classes. Classes compiled without the index processor,
+ * and classes it cannot index, have no index and are scanned reflectively instead.
+ */
+@Slf4j
+final class SubscriberIndexes {
+
+    /**
+     * Stored on the listener class itself, since the indexed methods reference it and would keep a weak key reachable.
+     */
+    private static final ClassValue<Optional<ImmutableList<SubscriberMethod>>> indexCache = new ClassValue<>() {
+        @Override
+        protected Optional<ImmutableList<SubscriberMethod>> computeValue(Class<?> clazz) {
+            return loadIndex(clazz);
+        }
+    };
+
+    private SubscriberIndexes() {
+    }
+
+    /**
+     * @return the indexed subscriber methods of {@code clazz}, or empty if it has no usable index.
+     */
+    static Optional<ImmutableList<SubscriberMethod>> getSubscriberMethods(Class<?> clazz) {
+        return indexCache.get(clazz);
+    }
+
+    private static Optional<ImmutableList<SubscriberMethod>> loadIndex(Class<?> clazz) {
+        try {
+            Class<?> indexClass = Class.forName(clazz.getName() + SubscriberIndex.SUFFIX, true, clazz.getClassLoader());
+            SubscriberIndex index = (SubscriberIndex) indexClass.getDeclaredConstructor().newInstance();
+            return Optional.of(ImmutableList.copyOf(index.getSubscriberMethods()));
+        } catch (ClassNotFoundException e) {
+            return Optional.empty();
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            log.warn("Could not load the subscriber index of " + clazz.getName() + ", falling back to reflection", e);
+            return Optional.empty();
+        }
+    }
+}
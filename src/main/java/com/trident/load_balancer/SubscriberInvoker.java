@@ -0,0 +1,13 @@
+package com.trident.load_balancer;
+
+/**
+ * Calls a subscriber method on its target. Implementations are generated once per subscriber method so that delivering
+ * an event is a plain interface call instead of a reflective {@link java.lang.reflect.Method#invoke}.
+ */
+@FunctionalInterface
+public interface SubscriberInvoker {
+    /**
+     * Invokes the subscriber method, propagating anything thrown by the method body as is.
+     */
+    void invoke(Object target, Object event) throws Throwable;
+}
@@ -0,0 +1,89 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds and caches a {@link SubscriberInvoker} per subscriber method. Invokers are spun with {@link LambdaMetafactory}
+ * so the JIT can inline the subscriber method into the delivery path; methods that cannot be linked that way fall back
+ * to reflection.
+ */
+@Slf4j
+final class SubscriberInvokers {
+
+    private static final MethodType INVOKER_FACTORY_TYPE = MethodType.methodType(SubscriberInvoker.class);
+
+    private static final MethodType INVOKE_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * Invokers by method, stored on the class declaring the methods so that caching them does not keep the class, and
+     * its class loader, from being unloaded.
+     */
+    private static final ClassValue<ConcurrentMap<Method, SubscriberInvoker>> invokerCache = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<Method, SubscriberInvoker> computeValue(Class<?> declaringClass) {
+            return Maps.newConcurrentMap();
+        }
+    };
+
+    private SubscriberInvokers() {
+    }
+
+    /**
+     * @return the cached invoker for {@code method}, generating it on first use.
+     */
+    static SubscriberInvoker forMethod(Method method) {
+        return invokerCache.get(method.getDeclaringClass()).computeIfAbsent(method, SubscriberInvokers::createInvoker);
+    }
+
+    /**
+     * @return an invoker that always goes through {@link Method#invoke}.
+     */
+    static SubscriberInvoker reflectiveInvoker(Method method) {
+        method.setAccessible(true);
+        return (target, event) -> {
+            try {
+                method.invoke(target, event);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    private static SubscriberInvoker createInvoker(Method method) {
+        if (Modifier.isStatic(method.getModifiers())) {
+            return reflectiveInvoker(method);
+        }
+        try {
+            return generatedInvoker(method);
+        } catch (Throwable e) {
+            log.debug(String.format("Could not generate an invoker for %s, falling back to reflection", method), e);
+            return reflectiveInvoker(method);
+        }
+    }
+
+    private static SubscriberInvoker generatedInvoker(Method method) throws Throwable {
+        Class<?> declaringClass = method.getDeclaringClass();
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(declaringClass, MethodHandles.lookup());
+        MethodHandle implementation = lookup.unreflect(method);
+        CallSite callSite = LambdaMetafactory.metafactory(
+                lookup,
+                "invoke",
+                INVOKER_FACTORY_TYPE,
+                INVOKE_TYPE,
+                implementation,
+                MethodType.methodType(void.class, declaringClass, method.getParameterTypes()[0])
+        );
+        return (SubscriberInvoker) callSite.getTarget().invokeExact();
+    }
+}
@@ -0,0 +1,17 @@
+package com.trident.load_balancer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.lang.reflect.Method;
+
+/**
+ * A subscriber method of a listener class along with the invoker that calls it.
+ */
+@Data
+@AllArgsConstructor
+public class SubscriberMethod {
+    private final Method method;
+
+    private final SubscriberInvoker invoker;
+}
@@ -0,0 +1,54 @@
+package com.trident.load_balancer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation latency and counts of exceptions, filtered out events and coalesced events of one subscriber. The
+ * histogram is created on the first invocation, so subscribers that never receive an event cost no more than the
+ * counter.
+ */
+final class SubscriberMetrics {
+    private static final LatencyStats NO_INVOCATIONS = new LatencyHistogram().snapshot();
+
+    private final LongAdder exceptions = new LongAdder();
+    private final LongAdder filteredOut = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private volatile LatencyHistogram invocationLatency;
+
+    void recordInvocation(long nanos, boolean threw) {
+        LatencyHistogram histogram = invocationLatency;
+        if (histogram == null) {
+            histogram = createHistogram();
+        }
+        histogram.record(nanos);
+        if (threw) {
+            exceptions.increment();
+        }
+    }
+
+    void recordFilteredOut() {
+        filteredOut.increment();
+    }
+
+    void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    private synchronized LatencyHistogram createHistogram() {
+        if (invocationLatency == null) {
+            invocationLatency = new LatencyHistogram();
+        }
+        return invocationLatency;
+    }
+
+    SubscriberStats toStats(String subscriber) {
+        LatencyHistogram histogram = invocationLatency;
+        return new SubscriberStats(
+                subscriber,
+                histogram == null ? NO_INVOCATIONS : histogram.snapshot(),
+                exceptions.sum(),
+                filteredOut.sum(),
+                coalesced.sum()
+        );
+    }
+}
@@ -0,0 +1,30 @@
+package com.trident.load_balancer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time view of how long a subscriber method takes and how often it throws, filters events out or coalesces them.
+ */
+@Data
+@AllArgsConstructor
+public class SubscriberStats {
+    private final String subscriber;
+
+    /**
+     * Time spent in the subscriber method per invocation, including invocations that threw.
+     */
+    private final LatencyStats invocationLatency;
+
+    private final long exceptions;
+
+    /**
+     * Events the subscriber's {@link EventFilter} rejected before they reached the executor.
+     */
+    private final long filteredOut;
+
+    /**
+     * Events replaced by a newer event with the same key before they were delivered.
+     */
+    private final long coalesced;
+}
@@ -1,90 +1,248 @@
 package com.trident.load_balancer;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.HashMultimap;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
+import com.google.common.reflect.TypeToken;
 
 import java.lang.reflect.Method;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
 
-import static java.util.stream.Collectors.toList;
-
 public class SubscriptionRegistry {
 
-    private final Map<Class<?>, CopyOnWriteArraySet<Subscriber>> subscribersByEventType = Maps.newConcurrentMap();
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+    private final Map<Class<?>, SubscriberArray> subscribersByEventType = Maps.newConcurrentMap();
     private final EventBus eventBus;
-    private final LoadingCache<Class<?>, ImmutableList<Class<?>>> superTypeCache = CacheBuilder.newBuilder()
-            .weakKeys()
-            .build(new CacheLoader<>() {
-                @Override
-                public ImmutableList<Class<?>> load(Class<?> clazz) {
-                    return getSupertypes(clazz);
-                }
-            });
+    private final Object registrationLock = new Object();
+    /**
+     * The subscribers created for each registered listener, keyed by identity, so unregistering removes exactly those
+     * instances. Guarded by {@code registrationLock}.
+     */
+    private final Map<Object, ImmutableListMultimap<Class<?>, Subscriber>> subscribersByListener = Maps.newIdentityHashMap();
+    /**
+     * Flattened subscribers for every concrete event class posted so far. Entries are filled in lazily by posters and
+     * the map is replaced wholesale on registration changes, so a poster never observes a half-applied change.
+     */
+    private volatile Map<Class<?>, Subscriber[]> dispatchTables = Maps.newConcurrentMap();
+    /*
+     * The per-class caches below are ClassValues rather than weak-keyed maps: their values reference the key class
+     * itself, which would keep a weak key, and so the listener's class loader, reachable forever.
+     */
+    private final ClassValue<ImmutableList<Class<?>>> superTypeCache = new ClassValue<>() {
+        @Override
+        protected ImmutableList<Class<?>> computeValue(Class<?> clazz) {
+            return getSupertypes(clazz);
+        }
+    };
+    private final ClassValue<ImmutableListMultimap<Class<?>, SubscriberMethod>> subscriberMethodsCache = new ClassValue<>() {
+        @Override
+        protected ImmutableListMultimap<Class<?>, SubscriberMethod> computeValue(Class<?> clazz) {
+            return getSubscriberMethodsByEventType(clazz);
+        }
+    };
+    private final ClassValue<ImmutableList<Class<?>>> eventTypeHierarchyCache = new ClassValue<>() {
+        @Override
+        protected ImmutableList<Class<?>> computeValue(Class<?> clazz) {
+            return getEventTypeHierarchy(clazz);
+        }
+    };
 
     SubscriptionRegistry(EventBus eventBus) {
         this.eventBus = eventBus;
     }
 
     /**
-     * Gets all subscribers for the hierarchy of this event.
+     * Gets all subscribers for the hierarchy of this event. The returned array is shared and must not be modified.
      */
-    Iterator<Subscriber> getSubscribers(Object event) {
-        ImmutableList<Class<?>> superTypes = superTypeCache.getUnchecked(event.getClass());
-        return superTypes
-                .stream()
-                .map(subscribersByEventType::get)
-                .filter(Objects::nonNull)
-                .flatMap(Set::stream)
-                .collect(toList())
-                .iterator();
-    }
-
-    void register(Object listener) throws ExecutionException {
-        Multimap<Class<?>, Subscriber> subscribersByEventTypeForListener = getSubscribersByEventType(listener);
-        for (Map.Entry<Class<?>, Collection<Subscriber>> entry : subscribersByEventTypeForListener.asMap().entrySet()) {
-            CopyOnWriteArraySet<Subscriber> eventSubscribers = subscribersByEventType.computeIfAbsent(entry.getKey(), k -> new CopyOnWriteArraySet<>());
-            eventSubscribers.addAll(entry.getValue());
+    Subscriber[] getSubscribers(Object event) {
+        return getSubscribers(event.getClass());
+    }
+
+    /**
+     * Gets all subscribers for the hierarchy of events of class {@code eventClass}.
+     */
+    Subscriber[] getSubscribers(Class<?> eventClass) {
+        Map<Class<?>, Subscriber[]> tables = dispatchTables;
+        Subscriber[] subscribers = tables.get(eventClass);
+        if (subscribers == null) {
+            subscribers = buildDispatchTable(eventClass);
+            tables.putIfAbsent(eventClass, subscribers);
+        }
+        return subscribers;
+    }
+
+    private Subscriber[] buildDispatchTable(Class<?> eventClass) {
+        List<Subscriber> subscribers = Lists.newArrayList();
+        for (Class<?> eventType : eventTypeHierarchyCache.get(eventClass)) {
+            SubscriberArray eventSubscribers = subscribersByEventType.get(eventType);
+            if (eventSubscribers != null) {
+                Collections.addAll(subscribers, eventSubscribers.get());
+            }
         }
+        return subscribers.isEmpty() ? NO_SUBSCRIBERS : subscribers.toArray(NO_SUBSCRIBERS);
     }
 
-    void unregister(Object listener) throws ExecutionException {
-        Multimap<Class<?>, Subscriber> subscribersByEventTypeForListener = getSubscribersByEventType(listener);
-        subscribersByEventTypeForListener
-                .asMap()
-                .forEach((eventType, allSubscribersForThisEvent) -> {
-                    CopyOnWriteArraySet<Subscriber> subscribersForThisEvent = subscribersByEventType.get(eventType);
-                    if (subscribersForThisEvent != null) {
-                        subscribersForThisEvent.removeAll(allSubscribersForThisEvent);
-                    }
-                });
+    /**
+     * @return every registered subscriber, across all event types.
+     */
+    ImmutableList<Subscriber> getAllSubscribers() {
+        ImmutableList.Builder<Subscriber> subscribers = ImmutableList.builder();
+        subscribersByEventType.values().forEach(eventSubscribers -> subscribers.add(eventSubscribers.get()));
+        return subscribers.build();
     }
 
-    private Multimap<Class<?>, Subscriber> getSubscribersByEventType(Object listener) throws ExecutionException {
-        Multimap<Class<?>, Subscriber> subscriberMultimap = HashMultimap.create();
-        for (Method method : getSubscribedMethods(listener.getClass())) {
-            Class<?> eventType = getEventType(method);
-            subscriberMultimap.put(eventType, Subscriber.getInstance(eventBus, listener, method));
+    /**
+     * Registers the subscriber methods of {@code listener}. Registering a listener that is already registered has no
+     * effect.
+     *
+     * @return the subscribers added by event type.
+     */
+    ListMultimap<Class<?>, Subscriber> register(Object listener) {
+        return registerAll(Collections.singletonList(listener));
+    }
+
+    /**
+     * Registers several listeners with a single update per event type, so registering {@code k} listeners of one event
+     * type costs one copy of that type's subscribers rather than {@code k}.
+     *
+     * @return the subscribers added by event type, empty if every listener was already registered.
+     */
+    ListMultimap<Class<?>, Subscriber> registerAll(Collection<?> listeners) {
+        Map<Object, ImmutableListMultimap<Class<?>, Subscriber>> subscribersOfListeners = Maps.newIdentityHashMap();
+        for (Object listener : listeners) {
+            if (!subscribersOfListeners.containsKey(listener)) {
+                subscribersOfListeners.put(listener, getSubscribersByEventType(listener));
+            }
+        }
+        synchronized (registrationLock) {
+            ListMultimap<Class<?>, Subscriber> addedSubscribers = ArrayListMultimap.create();
+            subscribersOfListeners.forEach((listener, subscribersByEventTypeForListener) -> {
+                if (subscribersByListener.putIfAbsent(listener, subscribersByEventTypeForListener) == null) {
+                    addedSubscribers.putAll(subscribersByEventTypeForListener);
+                }
+            });
+            if (addedSubscribers.isEmpty()) {
+                return addedSubscribers;
+            }
+            addedSubscribers
+                    .asMap()
+                    .forEach((eventType, subscribers) -> subscribersByEventType
+                            .computeIfAbsent(eventType, k -> new SubscriberArray())
+                            .addAll(subscribers));
+            invalidateDispatchTables(addedSubscribers.keySet());
+            return addedSubscribers;
         }
-        return subscriberMultimap;
+    }
+
+    /**
+     * Removes the subscribers created when {@code listener} was registered. Unregistering a listener that is not
+     * registered has no effect.
+     *
+     * @return the subscribers removed by event type.
+     */
+    ImmutableListMultimap<Class<?>, Subscriber> unregister(Object listener) {
+        synchronized (registrationLock) {
+            ImmutableListMultimap<Class<?>, Subscriber> subscribersByEventTypeForListener = subscribersByListener.remove(listener);
+            if (subscribersByEventTypeForListener == null) {
+                return ImmutableListMultimap.of();
+            }
+            subscribersByEventTypeForListener
+                    .asMap()
+                    .forEach((eventType, allSubscribersForThisEvent) -> {
+                        SubscriberArray subscribersForThisEvent = subscribersByEventType.get(eventType);
+                        if (subscribersForThisEvent != null) {
+                            subscribersForThisEvent.removeAll(allSubscribersForThisEvent);
+                        }
+                    });
+            invalidateDispatchTables(subscribersByEventTypeForListener.keySet());
+            return subscribersByEventTypeForListener;
+        }
+    }
+
+    /**
+     * Publishes a new set of dispatch tables without the entries of event classes whose hierarchy contains one of
+     * {@code changedEventTypes}. Must be called after the change has been applied to {@code subscribersByEventType}.
+     */
+    private void invalidateDispatchTables(Set<Class<?>> changedEventTypes) {
+        Map<Class<?>, Subscriber[]> tables = Maps.newConcurrentMap();
+        dispatchTables.forEach((eventClass, subscribers) -> {
+            if (Collections.disjoint(eventTypeHierarchyCache.get(eventClass), changedEventTypes)) {
+                tables.put(eventClass, subscribers);
+            }
+        });
+        dispatchTables = tables;
+    }
+
+    private ImmutableListMultimap<Class<?>, Subscriber> getSubscribersByEventType(Object listener) {
+        ImmutableListMultimap.Builder<Class<?>, Subscriber> subscriberMultimap = ImmutableListMultimap.builder();
+        subscriberMethodsCache.get(listener.getClass()).forEach((eventType, subscriberMethod) -> subscriberMultimap.put(
+                eventType,
+                Subscriber.getInstance(eventBus, listener, subscriberMethod.getMethod(), subscriberMethod.getInvoker())
+        ));
+        return subscriberMultimap.build();
+    }
+
+    private ImmutableListMultimap<Class<?>, SubscriberMethod> getSubscriberMethodsByEventType(Class<?> clazz) {
+        ImmutableListMultimap.Builder<Class<?>, SubscriberMethod> subscriberMethods = ImmutableListMultimap.builder();
+        for (SubscriberMethod subscriberMethod : getSubscriberMethods(clazz)) {
+            subscriberMethods.put(getEventType(subscriberMethod.getMethod()), subscriberMethod);
+        }
+        return subscriberMethods.build();
+    }
+
+    /**
+     * @return the subscriber methods of {@code clazz} from its generated index, or found by reflection if it has none.
+     */
+    private ImmutableList<SubscriberMethod> getSubscriberMethods(Class<?> clazz) {
+        Optional<ImmutableList<SubscriberMethod>> indexedMethods = SubscriberIndexes.getSubscriberMethods(clazz);
+        if (indexedMethods.isPresent()) {
+            return indexedMethods.get();
+        }
+        ImmutableList.Builder<SubscriberMethod> subscriberMethods = ImmutableList.builder();
+        for (Method method : getSubscribedMethods(clazz)) {
+            subscriberMethods.add(new SubscriberMethod(method, SubscriberInvokers.forMethod(method)));
+        }
+        return subscriberMethods.build();
     }
 
     private Class<?> getEventType(Method method) {
+        if (Subscriber.isBatchMethod(method)) {
+            return getBatchEventType(method);
+        }
         Class<?>[] parameterTypes = method.getParameterTypes();
         return parameterTypes[0];
     }
 
+    /**
+     * @return {@code T} for a batch method taking a {@code List<T>}.
+     */
+    private Class<?> getBatchEventType(Method method) {
+        Preconditions.checkArgument(
+                method.getParameterTypes()[0] == List.class,
+                "Batch subscriber method %s must take a List",
+                method
+        );
+        Class<?> eventType = TypeToken.of(method.getGenericParameterTypes()[0])
+                .resolveType(List.class.getTypeParameters()[0])
+                .getRawType();
+        Preconditions.checkArgument(
+                eventType != Object.class,
+                "Batch subscriber method %s must declare the event type of its List",
+                method
+        );
+        return eventType;
+    }
+
     /**
      * @return all the methods in the hierarchy of {@code clazz} with the annotation {@code annotation}.
      */
-    private ImmutableList<Method> getSubscribedMethods(Class<?> clazz) throws ExecutionException {
+    ImmutableList<Method> getSubscribedMethods(Class<?> clazz) {
         ImmutableList<Class<?>> superTypes = superTypeCache.get(clazz);
         ImmutableList.Builder<Method> methods = ImmutableList.builder();
         superTypes
@@ -94,6 +252,7 @@ public class SubscriptionRegistry {
                 .filter(m -> m.isAnnotationPresent(Subscribe.class))
                 .filter(m -> !m.isSynthetic())
                 .filter(m -> m.getParameterTypes().length == 1)
+                .distinct()
                 .forEach(methods::add);
         return methods.build();
     }
@@ -108,4 +267,17 @@ public class SubscriptionRegistry {
         }
         return superTypeBuilder.build();
     }
+
+    /**
+     * @return {@code clazz}, its superclasses and all the interfaces they implement, excluding Object.class.
+     */
+    private ImmutableList<Class<?>> getEventTypeHierarchy(Class<?> clazz) {
+        ImmutableList.Builder<Class<?>> eventTypeBuilder = ImmutableList.builder();
+        for (Class<?> eventType : TypeToken.of(clazz).getTypes().rawTypes()) {
+            if (eventType != Object.class) {
+                eventTypeBuilder.add(eventType);
+            }
+        }
+        return eventTypeBuilder.build();
+    }
 }
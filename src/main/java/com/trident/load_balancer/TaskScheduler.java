@@ -30,6 +30,13 @@ public class TaskScheduler {
         }
     }
 
+    /**
+     * Waits for a run in progress when the scheduler was stopped to finish.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.get() == null || executor.get().awaitTermination(timeout, unit);
+    }
+
     public void reset(int intervalMs) {
         stop();
         start(intervalMs);
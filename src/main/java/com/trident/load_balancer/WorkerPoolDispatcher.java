@@ -0,0 +1,327 @@
+package com.trident.load_balancer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base of the dispatchers that queue events in one or more bounded {@link MpmcArrayQueue} lanes and deliver them from a
+ * pool of worker threads. Subclasses decide which lane an event goes to and in which order a worker polls the lanes;
+ * this class owns the workers, how they wait while there is nothing to deliver, and what the
+ * {@link BackpressurePolicy} does when a lane is full.
+ */
+@Slf4j
+abstract class WorkerPoolDispatcher extends Dispatcher {
+    private static final int IDLE_SPINS = 100;
+
+    private static final long MIN_IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ImmutableList<MpmcArrayQueue<QueuedEvent>> lanes;
+    private final ImmutableList<LongAdder> deliveredCounts;
+    private final BackpressurePolicy backpressurePolicy;
+    private final Queue<Thread> parkedWorkers = new ConcurrentLinkedQueue<>();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder callerRunsCount = new LongAdder();
+    private final AtomicBoolean dropLogged = new AtomicBoolean();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private volatile ImmutableList<Thread> workers = ImmutableList.of();
+    private volatile boolean running = true;
+
+    WorkerPoolDispatcher(int laneCount, int laneCapacity, @NonNull BackpressurePolicy backpressurePolicy) {
+        ImmutableList.Builder<MpmcArrayQueue<QueuedEvent>> laneBuilder = ImmutableList.builder();
+        ImmutableList.Builder<LongAdder> deliveredCountBuilder = ImmutableList.builder();
+        for (int lane = 0; lane < laneCount; lane++) {
+            laneBuilder.add(new MpmcArrayQueue<>(laneCapacity));
+            deliveredCountBuilder.add(new LongAdder());
+        }
+        this.lanes = laneBuilder.build();
+        this.deliveredCounts = deliveredCountBuilder.build();
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    /**
+     * Starts the workers. Subclasses call this last in their constructor, since the workers start polling at once.
+     */
+    final void startWorkers(String nameFormat, int workerThreads) {
+        Preconditions.checkArgument(workerThreads > 0, "Worker thread count must be positive");
+        Preconditions.checkState(workers.isEmpty(), "Workers have already been started");
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .build();
+        ImmutableList.Builder<Thread> workerBuilder = ImmutableList.builder();
+        for (int i = 0; i < workerThreads; i++) {
+            LanePoller poller = newPoller();
+            Thread worker = threadFactory.newThread(() -> drain(poller));
+            worker.start();
+            workerBuilder.add(worker);
+        }
+        workers = workerBuilder.build();
+    }
+
+    /**
+     * @return the order in which one worker polls the lanes. Called once per worker, so it may keep per-worker state.
+     */
+    abstract LanePoller newPoller();
+
+    final void enqueue(int lane, QueuedEvent queuedEvent) {
+        Preconditions.checkState(running, "Dispatcher has been stopped");
+        MpmcArrayQueue<QueuedEvent> queue = lanes.get(lane);
+        if (queue.offer(queuedEvent)) {
+            queued(queue);
+            return;
+        }
+        switch (backpressurePolicy) {
+            case BLOCK:
+                waitUntilQueued(queue, queuedEvent);
+                break;
+            case DROP_NEWEST:
+                drop(queuedEvent);
+                break;
+            case DROP_OLDEST:
+                dropOldestUntilQueued(queue, queuedEvent);
+                break;
+            case CALLER_RUNS:
+                callerRunsCount.increment();
+                deliverToSubscribers(lane, queuedEvent);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported backpressure policy: " + backpressurePolicy);
+        }
+    }
+
+    private void waitUntilQueued(MpmcArrayQueue<QueuedEvent> queue, QueuedEvent queuedEvent) {
+        for (int attempt = 0; !queue.offer(queuedEvent); attempt++) {
+            Preconditions.checkState(running, "Dispatcher has been stopped");
+            idle(attempt);
+        }
+        queued(queue);
+    }
+
+    private void dropOldestUntilQueued(MpmcArrayQueue<QueuedEvent> queue, QueuedEvent queuedEvent) {
+        while (!queue.offer(queuedEvent)) {
+            QueuedEvent oldest = queue.poll();
+            if (oldest != null) {
+                drop(oldest);
+            }
+        }
+        queued(queue);
+    }
+
+    /**
+     * Counts an event that will never be delivered and acknowledges it to its subscribers, so a bus tracking delivery
+     * does not wait for it.
+     */
+    private void drop(QueuedEvent queuedEvent) {
+        droppedCount.increment();
+        if (!dropLogged.get() && dropLogged.compareAndSet(false, true)) {
+            log.warn(getClass().getSimpleName() + " queue is full and dropped an event under " + backpressurePolicy
+                    + "; further drops are only counted");
+        }
+        for (Subscriber subscriber : queuedEvent.subscribers) {
+            if (queuedEvent.batch) {
+                ((List<?>) queuedEvent.event).forEach(subscriber::acknowledgeUndelivered);
+            } else {
+                subscriber.acknowledgeUndelivered(queuedEvent.event);
+            }
+        }
+    }
+
+    /**
+     * Records the depth of the lane an event was just queued in, and unparks one worker waiting for events, if any.
+     */
+    private void queued(MpmcArrayQueue<QueuedEvent> queue) {
+        int depth = queue.size();
+        if (depth > peakQueueDepth.get()) {
+            peakQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+        Thread worker = parkedWorkers.poll();
+        if (worker != null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void drain(LanePoller poller) {
+        int idleCount = 0;
+        while (running || hasQueuedEvents()) {
+            if (poller.pollOnce()) {
+                idleCount = 0;
+            } else {
+                awaitEvent(idleCount++);
+            }
+        }
+    }
+
+    /**
+     * Takes the next event from {@code lane}, if there is one, and delivers it on the calling worker.
+     *
+     * @return false if the lane was empty.
+     */
+    final boolean pollLane(int lane) {
+        QueuedEvent queuedEvent = lanes.get(lane).poll();
+        if (queuedEvent == null) {
+            return false;
+        }
+        deliverToSubscribers(lane, queuedEvent);
+        return true;
+    }
+
+    private boolean hasQueuedEvents() {
+        for (MpmcArrayQueue<QueuedEvent> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deliverToSubscribers(int lane, QueuedEvent queuedEvent) {
+        for (Subscriber subscriber : queuedEvent.subscribers) {
+            try {
+                deliver(subscriber, queuedEvent.event, queuedEvent.batch);
+            } catch (RuntimeException e) {
+                log.error("Could not hand event " + queuedEvent.event + " to subscriber " + subscriber.getMethod(), e);
+            }
+        }
+        deliveredCounts.get(lane).increment();
+    }
+
+    /**
+     * Spins briefly, then parks the worker until {@link #enqueue} or {@link #stop} unparks it. The lanes are checked
+     * again after the worker is registered as parked, so an event queued in between is never missed; the park timeout
+     * is only a backstop.
+     */
+    private void awaitEvent(int idleCount) {
+        if (idleCount < IDLE_SPINS) {
+            Thread.onSpinWait();
+            return;
+        }
+        Thread worker = Thread.currentThread();
+        parkedWorkers.add(worker);
+        if (running && !hasQueuedEvents()) {
+            LockSupport.parkNanos(this, idleParkNanos(idleCount));
+        }
+        parkedWorkers.remove(worker);
+    }
+
+    /**
+     * Waits for space in a full lane on the posting thread, spinning briefly and then parking for longer and longer.
+     */
+    private static void idle(int idleCount) {
+        if (idleCount < IDLE_SPINS) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(idleParkNanos(idleCount));
+        }
+    }
+
+    private static long idleParkNanos(int idleCount) {
+        int doublings = Math.min(idleCount - IDLE_SPINS, 16);
+        return Math.min(MIN_IDLE_PARK_NANOS << doublings, MAX_IDLE_PARK_NANOS);
+    }
+
+    /**
+     * Stops accepting events. Workers exit once the events already queued have been delivered.
+     */
+    @Override
+    final void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * @return true once every worker has exited.
+     */
+    final boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                return false;
+            }
+            worker.join(remainingMs);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    final int getLaneCount() {
+        return lanes.size();
+    }
+
+    @Override
+    final int getQueueDepth() {
+        int depth = 0;
+        for (MpmcArrayQueue<QueuedEvent> lane : lanes) {
+            depth += lane.size();
+        }
+        return depth;
+    }
+
+    final int laneDepth(int lane) {
+        return lanes.get(lane).size();
+    }
+
+    final int laneCapacity(int lane) {
+        return lanes.get(lane).capacity();
+    }
+
+    final long deliveredCount(int lane) {
+        return deliveredCounts.get(lane).sum();
+    }
+
+    /**
+     * @return the deepest any single lane has been.
+     */
+    final int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    @Override
+    final long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    final long getCallerRunsCount() {
+        return callerRunsCount.sum();
+    }
+
+    /**
+     * One worker's way of picking the next event to deliver.
+     */
+    interface LanePoller {
+        /**
+         * Delivers at most one queued event, usually through {@link #pollLane}.
+         *
+         * @return false if there was nothing to deliver.
+         */
+        boolean pollOnce();
+    }
+
+    @AllArgsConstructor
+    static final class QueuedEvent {
+        private final Object event;
+        private final Subscriber[] subscribers;
+        private final boolean batch;
+    }
+}
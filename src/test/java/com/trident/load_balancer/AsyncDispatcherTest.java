@@ -0,0 +1,113 @@
+package com.trident.load_balancer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class AsyncDispatcherTest {
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final List<Thread> deliveryThreads = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstEventStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseWorker = new CountDownLatch(1);
+    private AsyncDispatcher dispatcher;
+
+    // Blocks the worker on the first event so that the queue can be filled up deterministically
+    private final Object blockingListener = new Object() {
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onNewEvent(String event) throws InterruptedException {
+            deliveryThreads.add(Thread.currentThread());
+            if (event.equals("first")) {
+                firstEventStarted.countDown();
+                releaseWorker.await();
+            }
+            received.add(event);
+        }
+    };
+
+    private EventBus busWith(BackpressurePolicy backpressurePolicy) {
+        dispatcher = new AsyncDispatcher(2, 1, backpressurePolicy);
+        EventBus eventBus = new EventBus("async", MoreExecutors.directExecutor(), EventBus.LoggingHandler.INSTANCE, dispatcher);
+        eventBus.register(blockingListener);
+        return eventBus;
+    }
+
+    @AfterEach
+    void stopDispatcher() throws InterruptedException {
+        releaseWorker.countDown();
+        dispatcher.stop();
+        assertThat(dispatcher.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    void testDeliveryHappensOnWorkerThread() throws InterruptedException {
+        EventBus eventBus = busWith(BackpressurePolicy.BLOCK);
+
+        eventBus.post("first");
+
+        assertThat(firstEventStarted.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(deliveryThreads.get(0), is(not(Thread.currentThread())));
+    }
+
+    @Test
+    void testDropNewestKeepsQueueBounded() throws InterruptedException {
+        EventBus eventBus = busWith(BackpressurePolicy.DROP_NEWEST);
+        eventBus.post("first");
+        firstEventStarted.await(5, TimeUnit.SECONDS);
+
+        eventBus.post("second");
+        eventBus.post("third");
+        eventBus.post("fourth");
+
+        assertThat(dispatcher.getQueueDepth(), is(2));
+        assertThat(dispatcher.getPeakQueueDepth(), is(2));
+        assertThat(dispatcher.getDroppedCount(), is(1L));
+        assertThat(eventBus.getStats().getDispatcherDropped(), is(1L));
+        releaseWorker.countDown();
+        dispatcher.stop();
+        dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        assertThat(received, contains("first", "second", "third"));
+        assertThat(dispatcher.getDeliveredCount(), is(3L));
+    }
+
+    @Test
+    void testDropOldestKeepsLatestEvents() throws InterruptedException {
+        EventBus eventBus = busWith(BackpressurePolicy.DROP_OLDEST);
+        eventBus.post("first");
+        firstEventStarted.await(5, TimeUnit.SECONDS);
+
+        eventBus.post("second");
+        eventBus.post("third");
+        eventBus.post("fourth");
+
+        assertThat(dispatcher.getDroppedCount(), is(1L));
+        releaseWorker.countDown();
+        dispatcher.stop();
+        dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        assertThat(received, contains("first", "third", "fourth"));
+    }
+
+    @Test
+    void testCallerRunsWhenQueueIsFull() throws InterruptedException {
+        EventBus eventBus = busWith(BackpressurePolicy.CALLER_RUNS);
+        eventBus.post("first");
+        firstEventStarted.await(5, TimeUnit.SECONDS);
+
+        eventBus.post("second");
+        eventBus.post("third");
+        eventBus.post("fourth");
+
+        assertThat(dispatcher.getCallerRunsCount(), is(1L));
+        assertThat(eventBus.getStats().getDispatcherCallerRuns(), is(1L));
+        assertThat(received, contains("fourth"));
+        assertThat(deliveryThreads, hasItem(Thread.currentThread()));
+    }
+}
@@ -0,0 +1,222 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.jooq.lambda.Unchecked;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DurableEventBusTest {
+    private static final Path TEST_LOGS = Path.of("durable_bus_test_logs");
+
+    private MessageLog<Serializable> messageLog;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        if (TEST_LOGS.toFile().exists()) {
+            Files.walk(TEST_LOGS)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(Unchecked.consumer(Files::delete));
+        }
+        messageLog = new MessageLog<>(new MessageLog.Segment.SegmentFactory<>(1_000_000, TEST_LOGS), Duration.ofHours(1));
+    }
+
+    @Test
+    void testUndeliveredEventsAreReplayedToTheSameSubscriberAfterRestart() {
+        // Given a bus whose deliveries are held back, as if the process died before running them
+        List<Runnable> pendingDeliveries = new CopyOnWriteArrayList<>();
+        Executor stalledExecutor = pendingDeliveries::add;
+        DurableEventBus crashedBus = new DurableEventBus(
+                "crashed",
+                stalledExecutor,
+                Dispatcher.getInstance(Dispatcher.Type.PER_THREAD),
+                messageLog,
+                1
+        );
+        RecordingListener beforeCrash = new RecordingListener();
+        crashedBus.register(beforeCrash);
+        crashedBus.post("first");
+        crashedBus.post("second");
+        crashedBus.post("third");
+
+        // When only the first delivery runs before the crash
+        pendingDeliveries.get(0).run();
+
+        // Then a bus opened on the same log continues the sequence and replays the rest to the same subscriber
+        DurableEventBus restartedBus = new DurableEventBus("restarted", messageLog);
+        assertThat(restartedBus.getLastSequence(), is(3L));
+        RecordingListener afterRestart = new RecordingListener();
+        restartedBus.register(afterRestart);
+        restartedBus.post("fourth");
+
+        assertThat(beforeCrash.received, contains("first"));
+        assertThat(afterRestart.received, contains("second", "third", "fourth"));
+    }
+
+    @Test
+    void testDeliveredEventsAreNotReplayed() {
+        DurableEventBus eventBus = new DurableEventBus("durable", messageLog);
+        RecordingListener listener = new RecordingListener();
+        eventBus.register(listener);
+        eventBus.post("first");
+        eventBus.post(HeartbeatExamples.VALID);
+        eventBus.stop();
+
+        DurableEventBus restartedBus = new DurableEventBus("restarted", messageLog);
+        RecordingListener afterRestart = new RecordingListener();
+        restartedBus.register(afterRestart);
+
+        assertThat(listener.received, contains("first"));
+        assertThat(afterRestart.received, is(empty()));
+        assertThat(messageLog.get("event-1").isTombstone(), is(true));
+    }
+
+    @Test
+    void testUndeliveredEventsAreReplayedFromALogReopenedFromDisk() throws IOException {
+        List<Runnable> pendingDeliveries = new CopyOnWriteArrayList<>();
+        DurableEventBus crashedBus = new DurableEventBus(
+                "crashed",
+                pendingDeliveries::add,
+                Dispatcher.getInstance(Dispatcher.Type.PER_THREAD),
+                messageLog,
+                1
+        );
+        crashedBus.register(new RecordingListener());
+        crashedBus.post("first");
+        crashedBus.post("second");
+        pendingDeliveries.get(0).run();
+
+        MessageLog<Serializable> reopenedLog = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(1_000_000, TEST_LOGS),
+                Duration.ofHours(1)
+        );
+        DurableEventBus restartedBus = new DurableEventBus("restarted", reopenedLog);
+        RecordingListener afterRestart = new RecordingListener();
+        restartedBus.register(afterRestart);
+
+        assertThat(restartedBus.getLastSequence(), is(2L));
+        assertThat(afterRestart.received, contains("second"));
+        reopenedLog.close();
+    }
+
+    @Test
+    void testEventsAreKeptUntilEveryKnownConsumerHasThem() {
+        DurableEventBus eventBus = new DurableEventBus("durable", messageLog);
+        eventBus.register(new RecordingListener());
+        OtherRecordingListener unregistered = new OtherRecordingListener();
+        eventBus.register(unregistered);
+        eventBus.unregister(unregistered);
+        eventBus.post("first");
+        eventBus.stop();
+
+        DurableEventBus restartedBus = new DurableEventBus("restarted", messageLog);
+        OtherRecordingListener reregistered = new OtherRecordingListener();
+        restartedBus.register(reregistered);
+
+        assertThat(messageLog.get("event-1").isTombstone(), is(false));
+        assertThat(reregistered.received, contains("first"));
+    }
+
+    @Test
+    void testForgottenConsumersNoLongerKeepEvents() {
+        DurableEventBus eventBus = new DurableEventBus("durable", messageLog);
+        eventBus.register(new RecordingListener());
+        OtherRecordingListener unregistered = new OtherRecordingListener();
+        eventBus.register(unregistered);
+        eventBus.unregister(unregistered);
+        eventBus.post("first");
+
+        String forgottenId = OtherRecordingListener.class.getName() + "#onEvent(java.lang.String)";
+        eventBus.forgetConsumer(forgottenId);
+        eventBus.stop();
+
+        assertThat(messageLog.get("event-1").isTombstone(), is(true));
+        assertThat(messageLog.get("offset-" + forgottenId).isTombstone(), is(true));
+        String registeredId = RecordingListener.class.getName() + "#onEvent(java.lang.String)";
+        assertThat(messageLog.get("consumers").getVal(), is(equalTo(Sets.newTreeSet(List.of(registeredId)))));
+    }
+
+    @Test
+    void testRegisteredConsumersCannotBeForgotten() {
+        DurableEventBus eventBus = new DurableEventBus("durable", messageLog);
+        eventBus.register(new RecordingListener());
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> eventBus.forgetConsumer(RecordingListener.class.getName() + "#onEvent(java.lang.String)")
+        );
+    }
+
+    @Test
+    void testEventsDroppedByTheDispatcherDoNotHoldBackTheOffset() throws InterruptedException {
+        // Given a bus whose dispatcher drops new events while its only worker is busy
+        AsyncDispatcher droppingDispatcher = new AsyncDispatcher(2, 1, BackpressurePolicy.DROP_NEWEST);
+        DurableEventBus eventBus = new DurableEventBus(
+                "dropping",
+                MoreExecutors.directExecutor(),
+                droppingDispatcher,
+                messageLog,
+                1
+        );
+        BlockingListener listener = new BlockingListener();
+        eventBus.register(listener);
+        eventBus.post("0");
+        assertThat(listener.started.await(5, TimeUnit.SECONDS), is(true));
+        IntStream.range(1, 10).forEach(i -> eventBus.post(String.valueOf(i)));
+        assertThat(droppingDispatcher.getDroppedCount(), is(greaterThan(0L)));
+
+        // When the events that were queued have been delivered
+        listener.release.countDown();
+        String offsetKey = "offset-" + BlockingListener.class.getName() + "#onEvent(java.lang.String)";
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Long.valueOf(10L).equals(messageLog.get(offsetKey).getVal()) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+            eventBus.commitOffsets();
+        }
+        eventBus.stop();
+
+        // Then the offset moves past the dropped events too
+        assertThat(messageLog.get(offsetKey).getVal(), is(10L));
+    }
+
+    public static class BlockingListener {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Subscribe
+        public void onEvent(String event) throws InterruptedException {
+            started.countDown();
+            release.await();
+        }
+    }
+
+    public static class OtherRecordingListener extends RecordingListener {
+    }
+
+    public static class RecordingListener {
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onEvent(String event) {
+            received.add(event);
+        }
+    }
+}
@@ -1,11 +1,21 @@
 package com.trident.load_balancer;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.internal.util.collections.Sets;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -51,4 +61,449 @@ public class EventBusTest {
         assertThat(sink, is(not(empty())));
         assertThat(sink, hasSize(2));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPostReachesInterfaceSubscribers() {
+        List<CharSequence> charSequences = new CopyOnWriteArrayList<>();
+        eventBus.register(new Object() {
+            @Subscribe
+            public void onNewEvent(CharSequence cs) {
+                charSequences.add(cs);
+            }
+        });
+
+        eventBus.post("string event");
+
+        assertThat(charSequences, contains("string event"));
+        assertThat(sink, contains("string event"));
+    }
+
+    @Test
+    public void testRegisterAfterPostSeesLaterEvents() {
+        List<Integer> lateSink = new CopyOnWriteArrayList<>();
+        Object lateListener = new Object() {
+            @Subscribe
+            public void onNewEvent(Integer i) {
+                lateSink.add(i);
+            }
+        };
+        eventBus.post(1);
+
+        eventBus.register(lateListener);
+        eventBus.post(2);
+        eventBus.unregister(lateListener);
+        eventBus.post(3);
+
+        assertThat(lateSink, contains(2));
+        assertThat(sink, containsInAnyOrder(1, 2, 3));
+    }
+
+    @Test
+    public void testRegisteringTwiceDeliversOnceAndUnregisterRemovesIt() {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        Object countingListener = new Object() {
+            @Subscribe
+            public void onNewEvent(Integer i) {
+                received.add(i);
+            }
+        };
+
+        eventBus.register(countingListener);
+        eventBus.register(countingListener);
+        eventBus.post(1);
+        eventBus.unregister(countingListener);
+        eventBus.unregister(countingListener);
+        eventBus.post(2);
+
+        assertThat(received, contains(1));
+        assertThat(sink, containsInAnyOrder(1, 2));
+    }
+
+    @Test
+    public void testPostAllHandsEachSubscriberOneBatchPerEventClass() {
+        AtomicInteger executions = new AtomicInteger();
+        Executor countingExecutor = command -> {
+            executions.incrementAndGet();
+            MoreExecutors.directExecutor().execute(command);
+        };
+        EventBus batchingBus = new EventBus("batching", countingExecutor, EventBus.LoggingHandler.INSTANCE, Dispatcher.getInstance(Dispatcher.Type.PER_THREAD));
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        List<Object> singles = new CopyOnWriteArrayList<>();
+        batchingBus.register(new Object() {
+            @Subscribe(batch = true)
+            public void onNewEvents(List<Integer> events) {
+                batches.add(events);
+            }
+
+            @Subscribe
+            public void onNewEvent(Integer i) {
+                singles.add(i);
+            }
+
+            @Subscribe
+            public void onNewEvent(String s) {
+                singles.add(s);
+            }
+        });
+
+        batchingBus.postAll(ImmutableList.of(1, "a", 2, 3, "b"));
+
+        assertThat(batches, contains(ImmutableList.of(1, 2, 3)));
+        assertThat(singles, contains(1, 2, 3, "a", "b"));
+        assertThat(executions.get(), is(3));
+    }
+
+    @Test
+    public void testSinglePostReachesBatchSubscriberAsListOfOne() {
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        eventBus.register(new Object() {
+            @Subscribe(batch = true)
+            public void onNewEvents(List<String> events) {
+                batches.add(events);
+            }
+        });
+
+        eventBus.post("string event");
+
+        assertThat(batches, contains(ImmutableList.of("string event")));
+    }
+
+    @Test
+    public void testVirtualThreadBusRespectsConcurrencyLimits() throws InterruptedException {
+        EventBus virtualThreadBus = EventBus.withVirtualThreads("virtual");
+        CountDownLatch delivered = new CountDownLatch(20);
+        AtomicInteger limitedRunning = new AtomicInteger(), limitedPeak = new AtomicInteger();
+        AtomicInteger serialRunning = new AtomicInteger(), serialPeak = new AtomicInteger();
+        virtualThreadBus.register(new Object() {
+            @Subscribe
+            @ConcurrentEventsAllowed(maxConcurrency = 2)
+            public void onLimitedEvent(Integer i) throws InterruptedException {
+                track(limitedRunning, limitedPeak);
+            }
+
+            @Subscribe
+            public void onSerialEvent(Integer i) throws InterruptedException {
+                track(serialRunning, serialPeak);
+            }
+
+            private void track(AtomicInteger running, AtomicInteger peak) throws InterruptedException {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+                delivered.countDown();
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            virtualThreadBus.post(i);
+        }
+
+        assertThat(delivered.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(limitedPeak.get(), is(lessThanOrEqualTo(2)));
+        assertThat(serialPeak.get(), is(1));
+        virtualThreadBus.stop();
+        assertThat(((ExecutorService) virtualThreadBus.getExecutor()).awaitTermination(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testSerialSubscriberKeepsPostOrderOnThreadPool() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        EventBus pooledBus = new EventBus("pooled", pool, EventBus.LoggingHandler.INSTANCE, Dispatcher.getInstance(Dispatcher.Type.PER_THREAD));
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(200);
+        AtomicInteger running = new AtomicInteger(), peak = new AtomicInteger();
+        pooledBus.register(new Object() {
+            @Subscribe
+            public void onNewEvent(Integer i) {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                received.add(i);
+                running.decrementAndGet();
+                delivered.countDown();
+            }
+        });
+
+        for (int i = 0; i < 200; i++) {
+            pooledBus.post(i);
+        }
+
+        assertThat(delivered.await(10, TimeUnit.SECONDS), is(true));
+        pool.shutdown();
+        assertThat(peak.get(), is(1));
+        for (int i = 0; i < 200; i++) {
+            assertThat(received.get(i), is(i));
+        }
+        MailboxStats stats = pooledBus.getMailboxStats().get(0);
+        assertThat(stats.getDeliveries(), is(200L));
+        assertThat(stats.getMailboxDepth(), is(0));
+    }
+
+    @Test
+    public void testNestedPostsAreDeliveredAfterTheCurrentEvent() {
+        List<String> deliveries = new CopyOnWriteArrayList<>();
+        EventBus nestingBus = new EventBus("nesting");
+        nestingBus.register(new Object() {
+            @Subscribe
+            @ConcurrentEventsAllowed
+            public void first(Integer i) {
+                deliveries.add("first:" + i);
+                if (i < 2) {
+                    nestingBus.post(i + 1);
+                    nestingBus.post("nested-" + i);
+                }
+            }
+
+            @Subscribe
+            @ConcurrentEventsAllowed
+            public void second(Integer i) {
+                deliveries.add("second:" + i);
+            }
+
+            @Subscribe
+            @ConcurrentEventsAllowed
+            public void onString(String s) {
+                deliveries.add(s);
+            }
+        });
+
+        nestingBus.post(0);
+        nestingBus.post(5);
+
+        assertThat(deliveries, contains(
+                "first:0", "second:0",
+                "first:1", "second:1",
+                "nested-0",
+                "first:2", "second:2",
+                "nested-1",
+                "first:5", "second:5"
+        ));
+    }
+
+    @Test
+    public void testSubscriberExceptionReachesHandler() {
+        List<Throwable> handled = new CopyOnWriteArrayList<>();
+        EventBus throwingBus = new EventBus((exception, context) -> handled.add(exception));
+        throwingBus.register(new Object() {
+            @Subscribe
+            public void onNewEvent(String s) {
+                throw new IllegalStateException(s);
+            }
+        });
+
+        throwingBus.post("boom");
+
+        assertThat(handled, hasSize(1));
+        assertThat(handled.get(0), is(instanceOf(IllegalStateException.class)));
+        assertThat(handled.get(0).getMessage(), is("boom"));
+    }
+
+    @Test
+    public void testStickyBusReplaysLatestEventPerKeyToNewListeners() {
+        EventBus stickyBus = EventBus.withStickyEvents("sticky", 16);
+        stickyBus.post(HeartbeatExamples.randomHbWithTimestamp(1, "node1"));
+        stickyBus.post(HeartbeatExamples.randomHbWithTimestamp(2, "node1"));
+        stickyBus.post(HeartbeatExamples.randomHbWithTimestamp(1, "node2"));
+        stickyBus.post("first");
+        stickyBus.post("second");
+
+        List<String> heartbeats = new CopyOnWriteArrayList<>();
+        List<Object> strings = new CopyOnWriteArrayList<>();
+        stickyBus.register(new Object() {
+            @Subscribe
+            public void onHeartbeat(Heartbeat heartbeat) {
+                heartbeats.add(heartbeat.getIpAddress() + "@" + heartbeat.getTimeEpochMs());
+            }
+
+            @Subscribe
+            public void onNewEvent(CharSequence cs) {
+                strings.add(cs);
+            }
+        });
+        stickyBus.post("third");
+
+        assertThat(heartbeats, containsInAnyOrder("node1@2", "node2@1"));
+        assertThat(strings, contains("second", "third"));
+    }
+
+    @Test
+    public void testDeadEventsAreCountedAndSampled() {
+        List<Object> sampled = new CopyOnWriteArrayList<>();
+        eventBus.register(new Object() {
+            @Subscribe
+            public void onDeadEvent(DeadEvent deadEvent) {
+                sampled.add(deadEvent.getEvent());
+            }
+        });
+        eventBus.sampleDeadEvents(3);
+
+        for (long i = 1; i <= 7; i++) {
+            eventBus.post(i);
+        }
+
+        assertThat(sampled, contains(1L, 4L, 7L));
+        assertThat(eventBus.getDeadEventStats(), contains(new DeadEventStats(Long.class, 7, 7L)));
+        assertThat(sink, is(empty()));
+    }
+
+    @Test
+    public void testStatsRecordPostsInvocationLatencyAndExceptions() throws InterruptedException {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        EventBus instrumentedBus = new EventBus("instrumented", executorService, (e, context) -> {
+        }, Dispatcher.getInstance(Dispatcher.Type.IMMEDIATE));
+        CountDownLatch delivered = new CountDownLatch(3);
+        instrumentedBus.register(new Object() {
+            @Subscribe
+            @ConcurrentEventsAllowed
+            public void onNewEvent(String s) throws InterruptedException {
+                delivered.countDown();
+                if (s.equals("boom")) {
+                    throw new IllegalStateException(s);
+                }
+                Thread.sleep(5);
+            }
+        });
+
+        instrumentedBus.post("first");
+        instrumentedBus.postAll(ImmutableList.of("second", "boom"));
+        instrumentedBus.post(42);
+        assertThat(delivered.await(5, TimeUnit.SECONDS), is(true));
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(5, TimeUnit.SECONDS), is(true));
+
+        EventBusStats stats = instrumentedBus.getStats();
+        assertThat(stats.getPosts(), is(4L));
+        assertThat(stats.getPostsPerSecond(), is(greaterThan(0.0)));
+        assertThat(stats.getDispatcherQueueDepth(), is(0));
+        assertThat(stats.getDispatcherDropped(), is(0L));
+        assertThat(stats.getDispatcherCallerRuns(), is(0L));
+        assertThat(stats.getExecutorWait().getCount(), is(2L));
+        SubscriberStats subscriberStats = stats.getSubscribers().get(0);
+        assertThat(subscriberStats.getSubscriber(), endsWith("#onNewEvent"));
+        assertThat(subscriberStats.getExceptions(), is(1L));
+        assertThat(subscriberStats.getInvocationLatency().getCount(), is(3L));
+        assertThat(subscriberStats.getInvocationLatency().getP50Nanos(), is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(4))));
+    }
+
+    @Test
+    public void testFilteredOutEventsNeverReachTheExecutor() {
+        AtomicInteger handOffs = new AtomicInteger();
+        Executor countingExecutor = command -> {
+            handOffs.incrementAndGet();
+            command.run();
+        };
+        EventBus filteringBus = new EventBus("filtering", countingExecutor, EventBus.LoggingHandler.INSTANCE, Dispatcher.getInstance(Dispatcher.Type.IMMEDIATE));
+        List<String> heartbeats = new CopyOnWriteArrayList<>();
+        List<List<Long>> recentBatches = new CopyOnWriteArrayList<>();
+        filteringBus.register(new Object() {
+            @Subscribe(keys = {"node1", "node3"})
+            @ConcurrentEventsAllowed
+            public void onHeartbeat(Heartbeat heartbeat) {
+                heartbeats.add(heartbeat.getIpAddress());
+            }
+
+            @Subscribe(batch = true, filter = RecentTimestamps.class)
+            @ConcurrentEventsAllowed
+            public void onTimestamps(List<Long> timestamps) {
+                recentBatches.add(timestamps);
+            }
+        });
+
+        for (int node = 1; node <= 4; node++) {
+            filteringBus.post(HeartbeatExamples.randomHbWithTimestamp(node, "node" + node));
+        }
+        filteringBus.postAll(ImmutableList.of(5L, 500L, 50L, 5000L));
+        filteringBus.postAll(ImmutableList.of(1L, 2L));
+
+        assertThat(heartbeats, contains("node1", "node3"));
+        assertThat(recentBatches, contains(List.of(500L, 5000L)));
+        assertThat(handOffs.get(), is(3));
+        assertThat(filteringBus.getStats().getSubscribers(), containsInAnyOrder(
+                hasProperty("filteredOut", is(2L)),
+                hasProperty("filteredOut", is(4L))
+        ));
+    }
+
+    public static final class RecentTimestamps implements EventFilter<Long> {
+        @Override
+        public boolean accepts(Long timestamp) {
+            return timestamp >= 100;
+        }
+    }
+
+    @Test
+    public void testCoalescingSubscriberOnlySeesTheLatestPendingEventPerKey() throws InterruptedException {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        EventBus coalescingBus = new EventBus("coalescing", executorService, EventBus.LoggingHandler.INSTANCE, Dispatcher.getInstance(Dispatcher.Type.IMMEDIATE));
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        coalescingBus.register(new Object() {
+            @Subscribe(coalesce = true)
+            public void onHeartbeat(Heartbeat heartbeat) throws InterruptedException {
+                if (heartbeat.getTimeEpochMs() == 0) {
+                    firstStarted.countDown();
+                    releaseFirst.await();
+                }
+                received.add(heartbeat.getIpAddress() + "@" + heartbeat.getTimeEpochMs());
+            }
+        });
+
+        // Given a subscriber stuck on its first heartbeat
+        coalescingBus.post(HeartbeatExamples.randomHbWithTimestamp(0, "node1"));
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        // When several heartbeats per node pile up behind it
+        for (int timestamp = 1; timestamp <= 3; timestamp++) {
+            coalescingBus.post(HeartbeatExamples.randomHbWithTimestamp(timestamp, "node1"));
+            coalescingBus.post(HeartbeatExamples.randomHbWithTimestamp(timestamp, "node2"));
+        }
+        releaseFirst.countDown();
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(5, TimeUnit.SECONDS), is(true));
+
+        // Then only the latest one per node is delivered, in the order the nodes first became pending
+        assertThat(received, contains("node1@0", "node1@3", "node2@3"));
+        assertThat(coalescingBus.getStats().getSubscribers().get(0).getCoalesced(), is(4L));
+    }
+
+    @Test
+    public void testCoalescingSubscriberDeliversOtherKeysWhileOneIsBusy() throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        EventBus coalescingBus = new EventBus("coalescing", executorService, EventBus.LoggingHandler.INSTANCE, Dispatcher.getInstance(Dispatcher.Type.IMMEDIATE));
+        CountDownLatch releaseNode1 = new CountDownLatch(1);
+        CountDownLatch node2Delivered = new CountDownLatch(1);
+        coalescingBus.register(new Object() {
+            @Subscribe(coalesce = true)
+            public void onHeartbeat(Heartbeat heartbeat) throws InterruptedException {
+                if (heartbeat.getIpAddress().equals("node1")) {
+                    releaseNode1.await();
+                } else {
+                    node2Delivered.countDown();
+                }
+            }
+        });
+
+        coalescingBus.post(HeartbeatExamples.randomHbWithTimestamp(0, "node1"));
+        coalescingBus.post(HeartbeatExamples.randomHbWithTimestamp(0, "node2"));
+
+        assertThat(node2Delivered.await(5, TimeUnit.SECONDS), is(true));
+        releaseNode1.countDown();
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testCoalescingSubscriberAcceptsEventsWithoutAPartitionKey() {
+        List<Heartbeat> received = new CopyOnWriteArrayList<>();
+        eventBus.register(new Object() {
+            @Subscribe(coalesce = true)
+            public void onHeartbeat(Heartbeat heartbeat) {
+                received.add(heartbeat);
+            }
+        });
+        Heartbeat unkeyed = new Heartbeat((ComponentUsageService) null);
+
+        eventBus.post(unkeyed);
+
+        assertThat(received, contains(unkeyed));
+    }
+}
@@ -0,0 +1,80 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class KeyedDispatcherTest {
+    private static final int NODES = 8;
+    private static final int BEATS_PER_NODE = 500;
+
+    private final Map<String, List<Long>> timestampsByNode = new ConcurrentHashMap<>();
+    private final Map<String, Set<Thread>> threadsByNode = new ConcurrentHashMap<>();
+    private final Set<Thread> allThreads = ConcurrentHashMap.newKeySet();
+
+    private final Object listener = new Object() {
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onHeartbeat(Heartbeat heartbeat) {
+            timestampsByNode.computeIfAbsent(heartbeat.getIpAddress(), k -> new CopyOnWriteArrayList<>()).add(heartbeat.getTimeEpochMs());
+            threadsByNode.computeIfAbsent(heartbeat.getIpAddress(), k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread());
+            allThreads.add(Thread.currentThread());
+        }
+    };
+
+    @Test
+    void testHeartbeatsAreOrderedPerNodeAndParallelAcrossNodes() throws InterruptedException {
+        KeyedDispatcher dispatcher = new KeyedDispatcher(4, 64, BackpressurePolicy.BLOCK);
+        EventBus eventBus = new EventBus("keyed", dispatcher);
+        eventBus.register(listener);
+
+        for (long ts = 0; ts < BEATS_PER_NODE; ts++) {
+            for (int node = 0; node < NODES; node++) {
+                eventBus.post(HeartbeatExamples.randomHbWithTimestamp(ts, "node" + node));
+            }
+        }
+        eventBus.stop();
+
+        assertThat(dispatcher.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertInOrderOnOneThreadPerNode();
+        assertThat(allThreads.size(), is(greaterThan(1)));
+    }
+
+    @Test
+    void testPostAllKeepsPerNodeOrder() throws InterruptedException {
+        KeyedDispatcher dispatcher = new KeyedDispatcher(4, 64, BackpressurePolicy.BLOCK);
+        EventBus eventBus = new EventBus("keyed", dispatcher);
+        eventBus.register(listener);
+
+        List<Heartbeat> heartbeats = Lists.newArrayList();
+        for (long ts = 0; ts < BEATS_PER_NODE; ts++) {
+            for (int node = 0; node < NODES; node++) {
+                heartbeats.add(HeartbeatExamples.randomHbWithTimestamp(ts, "node" + node));
+            }
+        }
+        eventBus.postAll(ImmutableList.copyOf(heartbeats));
+        eventBus.stop();
+
+        assertThat(dispatcher.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertInOrderOnOneThreadPerNode();
+    }
+
+    private void assertInOrderOnOneThreadPerNode() {
+        List<Long> expected = IntStream.range(0, BEATS_PER_NODE).mapToObj(Long::valueOf).collect(Collectors.toList());
+        assertThat(timestampsByNode.size(), is(NODES));
+        timestampsByNode.values().forEach(timestamps -> assertThat(timestamps, is(expected)));
+        threadsByNode.values().forEach(threads -> assertThat(threads, hasSize(1)));
+    }
+}
@@ -0,0 +1,37 @@
+package com.trident.load_balancer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class LatencyHistogramTest {
+    @Test
+    void testPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 10_000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+
+        LatencyStats stats = histogram.snapshot();
+
+        assertThat(stats.getCount(), is(10_000L));
+        assertThat((double) stats.getP50Nanos(), is(closeTo(5_000_000, 5_000_000 / 16.0)));
+        assertThat((double) stats.getP99Nanos(), is(closeTo(9_900_000, 9_900_000 / 16.0)));
+        assertThat(stats.getMaxNanos(), is(10_000_000L));
+    }
+
+    @Test
+    void testValuesBeyondTheTrackableRangeAreClampedButKeepTheirMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        LatencyStats stats = histogram.snapshot();
+
+        assertThat(stats.getCount(), is(2L));
+        assertThat(stats.getP50Nanos(), is(0L));
+        assertThat(stats.getMaxNanos(), is(Long.MAX_VALUE));
+        assertThat(stats.getP999Nanos(), is(Long.MAX_VALUE));
+    }
+}
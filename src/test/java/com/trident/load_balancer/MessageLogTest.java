@@ -1,20 +1,38 @@
 package com.trident.load_balancer;
 
 
+import com.google.common.collect.Lists;
 import org.jooq.lambda.Unchecked;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.util.SerializationUtils;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.lang.Thread.sleep;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
 
 class MessageLogTest {
     Path TEST_LOGS = Path.of("test_logs");
@@ -64,18 +82,18 @@ class MessageLogTest {
         MessageLog<String> logging = new MessageLog<>(
                 new MessageLog.Segment.SegmentFactory<>
                         (
-                                200_000,
+                                50_000,
                                 Path.of("test_logs")
                         ),
                 Duration.of(2, ChronoUnit.SECONDS)
         );
         // And a number of K-V writes (some duplicated) such that many log files are produced
         writeUniqueAndRandomKvWrites(logging);
-        int beforeCompaction = TEST_LOGS.toFile().listFiles().length;
+        int beforeCompaction = segmentFileCount();
 
         // When compaction finishes
         sleep(2_000);
-        int afterCompaction = TEST_LOGS.toFile().listFiles().length;
+        int afterCompaction = segmentFileCount();
 
         // Then the segment files should be compacted such that afterCompaction < beforeCompaction
         assertThat(beforeCompaction, is(6));
@@ -86,6 +104,319 @@ class MessageLogTest {
         // And replacements are also registered
         assertThat(logging.get("asdare2500").getVal(), is("2501"));
         assertThat(logging.get("asdare4999").getVal(), is("5000"));
+        logging.close();
+    }
+
+    @Test
+    void compactedSegmentsArePersistedBeforeTheirInputsAreDeleted() throws Exception {
+        // Given a log that syncs every commit and compacts every 100ms
+        MessageLog<String> logging = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(2_000, TEST_LOGS, Codec.utf8()),
+                Duration.ofMillis(100),
+                FsyncPolicy.PER_BATCH,
+                Duration.ZERO
+        );
+
+        // When keys overwritten across several segments are compacted
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 40; i++) {
+                logging.append("key" + i, round + "-" + i);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (logging.getCompactionStats().getCompactions() == 0 && System.nanoTime() < deadline) {
+            sleep(20);
+        }
+        assertThat(logging.getCompactionStats().getCompactions(), is(greaterThan(0L)));
+
+        // Then every segment left has a hint file, and a log reopened without closing the first finds every record
+        for (File segFile : TEST_LOGS.toFile().listFiles((dir, name) -> name.endsWith(".dat"))) {
+            assertThat(Files.exists(TEST_LOGS.resolve(segFile.getName().replace(".dat", ".hint"))), is(true));
+        }
+        MessageLog<String> reopened = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(2_000, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+        for (int i = 0; i < 40; i++) {
+            assertThat(reopened.get("key" + i).getVal(), is("2-" + i));
+        }
+        reopened.close();
+        logging.close();
+    }
+
+    @Test
+    void concurrentAppendsAreGroupCommittedAcrossSegments() throws Exception {
+        // Given a log that syncs every commit and whose segments hold only a few records
+        MessageLog<String> logging = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(
+                        2_000,
+                        TEST_LOGS
+                ),
+                Duration.of(1, ChronoUnit.HOURS),
+                FsyncPolicy.PER_BATCH,
+                Duration.ZERO
+        );
+
+        // When several threads append at once without waiting for each record
+        ExecutorService appenders = Executors.newFixedThreadPool(4);
+        List<Future<List<CompletableFuture<Void>>>> appended = Lists.newArrayList();
+        for (int appender = 0; appender < 4; appender++) {
+            String prefix = "appender" + appender + "-";
+            appended.add(appenders.submit(() -> IntStream.range(0, 50)
+                    .mapToObj(i -> logging.appendAsync(prefix + i, String.valueOf(i)))
+                    .collect(Collectors.toList())));
+        }
+        for (Future<List<CompletableFuture<Void>>> futures : appended) {
+            CompletableFuture.allOf(futures.get().toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        }
+        appenders.shutdown();
+
+        // Then every record is readable once its future completes, however the commits split them over segments
+        assertThat(TEST_LOGS.toFile().listFiles().length, is(greaterThan(1)));
+        for (int appender = 0; appender < 4; appender++) {
+            for (int i = 0; i < 50; i++) {
+                assertThat(logging.get("appender" + appender + "-" + i).getVal(), is(String.valueOf(i)));
+            }
+        }
+        logging.close();
+    }
+
+    @Test
+    void recordsTooLargeForASegmentFailOnlyTheirOwnAppend() throws IOException {
+        MessageLog<String> logging = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(
+                        477,
+                        TEST_LOGS
+                ),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+
+        CompletableFuture<Void> tooLarge = logging.appendAsync("large", "x".repeat(1_000));
+        logging.append("small", "value");
+
+        assertThat(tooLarge.isCompletedExceptionally(), is(true));
+        assertThat(logging.get("small").getVal(), is("value"));
+        logging.close();
+    }
+
+    @Test
+    void recordsAreReadBackFromRolledOverSegments() throws IOException {
+        // Given a log whose earlier segments have rolled over and are read-only
+        MessageLog<String> logging = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(
+                        120,
+                        TEST_LOGS
+                ),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+        for (int i = 0; i < 10; i++) {
+            logging.append("key" + i, "value" + i);
+        }
+        logging.append("key0", "replaced");
+        assertThat(TEST_LOGS.toFile().listFiles().length, is(greaterThan(2)));
+
+        // Then records are read from whichever segment last wrote their key, repeatedly
+        for (int read = 0; read < 2; read++) {
+            assertThat(logging.get("key0").getVal(), is("replaced"));
+            for (int i = 1; i < 10; i++) {
+                assertThat(logging.get("key" + i).getVal(), is("value" + i));
+            }
+        }
+        logging.close();
+    }
+
+    @Test
+    void legacySegmentFilesAreMigratedToTheBinaryFormat() throws IOException {
+        // Given a segment file of Java-serialized records
+        Path segFile = TEST_LOGS.resolve("segment-1.dat");
+        for (int i = 0; i < 3; i++) {
+            MessageLog.Record<String> legacy = new MessageLog.Record<>("key" + i, i, "value" + i);
+            Files.write(segFile, SerializationUtils.serialize(legacy), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        long legacySize = Files.size(segFile);
+
+        // When it is migrated
+        int migrated = MessageLog.Segment.migrateLegacySegmentFile(segFile, Codec.utf8());
+
+        // Then every record is rewritten, smaller, in the binary format
+        assertThat(migrated, is(3));
+        assertThat(Files.size(segFile), is(lessThan(legacySize)));
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(segFile));
+        for (int i = 0; i < 3; i++) {
+            assertThat(RecordFormat.isLegacy(bytes), is(false));
+            assertThat(RecordFormat.read(bytes, Codec.utf8()).getVal(), is("value" + i));
+        }
+        assertThat(bytes.hasRemaining(), is(false));
+        // And migrating again changes nothing
+        assertThat(MessageLog.Segment.migrateLegacySegmentFile(segFile, Codec.utf8()), is(0));
+    }
+
+    @Test
+    void recordsSurviveReopeningTheLog() throws IOException {
+        // Given a closed log spread over several segments, each with a hint file
+        MessageLog<String> logging = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(120, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+        for (int i = 0; i < 10; i++) {
+            logging.append("key" + i, "value" + i);
+        }
+        logging.append("key0", "replaced");
+        logging.close();
+        assertThat(Files.exists(TEST_LOGS.resolve("segment-1.hint")), is(true));
+        // And a hint file that got corrupted
+        Files.write(TEST_LOGS.resolve("segment-2.hint"), new byte[]{1, 2, 3});
+
+        // When a new log is opened on the same directory
+        MessageLog<String> reopened = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(120, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+        reopened.append("key10", "value10");
+
+        // Then every record is back, the latest one of each key wins and new records go on after the old ones
+        assertThat(reopened.get("key0").getVal(), is("replaced"));
+        for (int i = 1; i <= 10; i++) {
+            assertThat(reopened.get("key" + i).getVal(), is("value" + i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    void tornRecordsAreTruncatedOnRecovery() throws IOException {
+        // Given a log that crashed, without closing, while writing a record
+        MessageLog<String> crashed = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(10_000, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+        for (int i = 0; i < 3; i++) {
+            crashed.append("key" + i, "value" + i);
+        }
+        Path segFile = TEST_LOGS.resolve("segment-1.dat");
+        long intactSize = Files.size(segFile);
+        byte[] torn = Arrays.copyOf(RecordFormat.encode(new MessageLog.Record<>("key3", 0, "value3"), Codec.utf8()), 20);
+        Files.write(segFile, torn, StandardOpenOption.APPEND);
+
+        // When the log is reopened
+        MessageLog<String> recovered = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(10_000, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+
+        // Then the torn record is cut off and the intact ones are kept
+        assertThat(Files.size(segFile), is(intactSize));
+        assertThat(recovered.get("key3"), is(nullValue()));
+        for (int i = 0; i < 3; i++) {
+            assertThat(recovered.get("key" + i).getVal(), is("value" + i));
+        }
+        recovered.close();
+    }
+
+    @Test
+    void corruptRecordsBeforeIntactOnesAreSkippedOnRecovery() throws IOException {
+        // Given a log that crashed, without closing, after writing a few records
+        MessageLog<String> crashed = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(10_000, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+        for (int i = 0; i < 3; i++) {
+            crashed.append("key" + i, "value" + i);
+        }
+        // And a flipped bit in the value of the middle record
+        Path segFile = TEST_LOGS.resolve("segment-1.dat");
+        long intactSize = Files.size(segFile);
+        int recordLength = RecordFormat.encode(new MessageLog.Record<>("key1", 0, "value1"), Codec.utf8()).length;
+        byte[] bytes = Files.readAllBytes(segFile);
+        bytes[2 * recordLength - 6] ^= 1;
+        Files.write(segFile, bytes);
+
+        // When the log is reopened
+        MessageLog<String> recovered = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(10_000, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+
+        // Then only the corrupt record is lost, and the segment is not truncated
+        assertThat(Files.size(segFile), is(intactSize));
+        assertThat(recovered.get("key0").getVal(), is("value0"));
+        assertThat(recovered.get("key1"), is(nullValue()));
+        assertThat(recovered.get("key2").getVal(), is("value2"));
+        recovered.close();
+    }
+
+    @Test
+    void corruptRecordsInLegacySegmentsAreSkippedOnRecovery() throws IOException {
+        // Given a segment file of Java-serialized records
+        Path segFile = TEST_LOGS.resolve("segment-1.dat");
+        int middleStart = 0;
+        for (int i = 0; i < 3; i++) {
+            if (i == 1) {
+                middleStart = (int) Files.size(segFile);
+            }
+            MessageLog.Record<String> legacy = new MessageLog.Record<>("key" + i, i, "value" + i);
+            Files.write(segFile, SerializationUtils.serialize(legacy), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        long intactSize = Files.size(segFile);
+        // And a middle record whose stream header got corrupted
+        byte[] bytes = Files.readAllBytes(segFile);
+        bytes[middleStart] = 0;
+        Files.write(segFile, bytes);
+
+        // When the log is reopened
+        MessageLog<String> recovered = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(10_000, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+
+        // Then only the corrupt record is lost, and the segment is not truncated
+        assertThat(Files.size(segFile), is(intactSize));
+        assertThat(recovered.get("key0").getVal(), is("value0"));
+        assertThat(recovered.get("key1"), is(nullValue()));
+        assertThat(recovered.get("key2").getVal(), is("value2"));
+        recovered.close();
+    }
+
+    @Test
+    void compactionRunsAlongsideAppendsAndLookups() throws IOException {
+        // Given a log that compacts every 50ms
+        MessageLog<String> logging = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(2_000, TEST_LOGS, Codec.utf8()),
+                Duration.ofMillis(50)
+        );
+
+        // When keys are overwritten round after round while compactions run
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        int round = 0;
+        while (logging.getCompactionStats().getCompactions() < 3 && System.nanoTime() < deadline) {
+            for (int key = 0; key < 20; key++) {
+                logging.append("key" + key, "round" + round);
+            }
+            // Then every lookup sees the latest round, whichever segments compaction has swapped in meanwhile
+            for (int key = 0; key < 20; key++) {
+                assertThat(logging.get("key" + key).getVal(), is("round" + round));
+            }
+            round++;
+        }
+        CompactionStats stats = logging.getCompactionStats();
+        assertThat(stats.getCompactions(), is(greaterThanOrEqualTo(3L)));
+        assertThat(stats.getBytesReclaimed(), is(greaterThan(0L)));
+        assertThat(stats.getBytesPerSecond(), is(greaterThan(0.0)));
+        assertThat(stats.getPause().getCount(), is(greaterThanOrEqualTo(2 * stats.getCompactions())));
+        logging.close();
+
+        // And a log reopened on the compacted segments finds the latest round too
+        MessageLog<String> reopened = new MessageLog<>(
+                new MessageLog.Segment.SegmentFactory<>(2_000, TEST_LOGS, Codec.utf8()),
+                Duration.of(1, ChronoUnit.HOURS)
+        );
+        for (int key = 0; key < 20; key++) {
+            assertThat(reopened.get("key" + key).getVal(), is("round" + (round - 1)));
+        }
+        reopened.close();
+    }
+
+    private int segmentFileCount() {
+        return TEST_LOGS.toFile().listFiles((dir, name) -> name.endsWith(".dat")).length;
     }
 
     private void writeUniqueAndRandomKvWrites(MessageLog<String> logging) throws IOException {
@@ -0,0 +1,82 @@
+package com.trident.load_balancer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares posting through the per-thread dispatcher when subscribers post nothing (flat) against subscribers that post
+ * a follow-up event for every event they receive (nested).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerThreadDispatcherBenchmark {
+    private final EventBus flatBus = new EventBus("flat");
+    private final EventBus nestedBus = new EventBus("nested");
+    private final Heartbeat heartbeat = HeartbeatExamples.VALID;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PerThreadDispatcherBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        flatBus.register(new HeartbeatSink(blackhole));
+        nestedBus.register(new HeartbeatSink(blackhole), new ForwardingListener(nestedBus));
+    }
+
+    @Benchmark
+    public void flatPost() {
+        flatBus.post(heartbeat);
+    }
+
+    @Benchmark
+    public void nestedPost() {
+        nestedBus.post(heartbeat);
+    }
+
+    public static class HeartbeatSink {
+        private final Blackhole blackhole;
+
+        HeartbeatSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onHeartbeat(Heartbeat heartbeat) {
+            blackhole.consume(heartbeat);
+        }
+
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onIpAddress(String ipAddress) {
+            blackhole.consume(ipAddress);
+        }
+    }
+
+    public static class ForwardingListener {
+        private final EventBus eventBus;
+
+        ForwardingListener(EventBus eventBus) {
+            this.eventBus = eventBus;
+        }
+
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onHeartbeat(Heartbeat heartbeat) {
+            eventBus.post(heartbeat.getIpAddress());
+        }
+    }
+}
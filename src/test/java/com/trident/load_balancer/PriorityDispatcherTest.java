@@ -0,0 +1,99 @@
+package com.trident.load_balancer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import lombok.AllArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class PriorityDispatcherTest {
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstEventStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseWorker = new CountDownLatch(1);
+    private PriorityDispatcher dispatcher;
+
+    // Blocks the single worker on the first event so that the lanes can be filled up deterministically
+    private final Object blockingListener = new Object() {
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onNewEvent(String event) throws InterruptedException {
+            if (event.equals("first")) {
+                firstEventStarted.countDown();
+                releaseWorker.await();
+            }
+            received.add(event);
+        }
+
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onNodeDown(NodeDown event) {
+            received.add(event.node);
+        }
+    };
+
+    private EventBus busWithStarvationLimit(int starvationLimit) throws InterruptedException {
+        dispatcher = new PriorityDispatcher(1024, 1, BackpressurePolicy.BLOCK, starvationLimit);
+        EventBus eventBus = new EventBus("priority", MoreExecutors.directExecutor(), EventBus.LoggingHandler.INSTANCE, dispatcher);
+        eventBus.register(blockingListener);
+        eventBus.post("first");
+        assertThat(firstEventStarted.await(5, TimeUnit.SECONDS), is(true));
+        return eventBus;
+    }
+
+    @AfterEach
+    void stopDispatcher() throws InterruptedException {
+        releaseWorker.countDown();
+        dispatcher.stop();
+        assertThat(dispatcher.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    void testHighPriorityEventsOvertakeQueuedRoutineEvents() throws InterruptedException {
+        EventBus eventBus = busWithStarvationLimit(1000);
+        for (int i = 0; i < 100; i++) {
+            eventBus.post("routine-" + i);
+        }
+        eventBus.post(new NodeDown("node-1"));
+
+        assertThat(dispatcher.getLaneDepth(EventPriority.HIGH), is(1));
+        assertThat(dispatcher.getLaneDepth(EventPriority.NORMAL), is(100));
+        releaseWorker.countDown();
+        dispatcher.stop();
+        dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        assertThat(received, hasSize(102));
+        assertThat(received.subList(0, 2), contains("first", "node-1"));
+        assertThat(dispatcher.getDeliveredCount(EventPriority.HIGH), is(1L));
+    }
+
+    @Test
+    void testLowerLanesAreNotStarvedByHighPriorityFlood() throws InterruptedException {
+        EventBus eventBus = busWithStarvationLimit(4);
+        for (int i = 0; i < 100; i++) {
+            eventBus.post(new NodeDown("node-" + i));
+        }
+        eventBus.post("routine");
+
+        releaseWorker.countDown();
+        dispatcher.stop();
+        dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        assertThat(received, hasSize(102));
+        assertThat(received.indexOf("routine"), is(lessThanOrEqualTo(4)));
+    }
+
+    @AllArgsConstructor
+    private static final class NodeDown implements PrioritizedEvent {
+        private final String node;
+
+        @Override
+        public EventPriority eventPriority() {
+            return EventPriority.HIGH;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.trident.load_balancer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.SerializationUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordFormatTest {
+    private final MessageLog.Record<String> record = new MessageLog.Record<>("node-1", 1234L, "healthy");
+
+    @Test
+    void testRecordsRoundTripAndAreSmallerThanJavaSerialization() throws IOException {
+        byte[] bytes = RecordFormat.encode(record, Codec.utf8());
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertThat(RecordFormat.read(buffer, Codec.utf8()), is(record));
+        assertThat(buffer.hasRemaining(), is(false));
+        assertThat(bytes.length, is(lessThan(SerializationUtils.serialize(record).length / 4)));
+    }
+
+    @Test
+    void testTombstonesHaveNoValue() throws IOException {
+        MessageLog.Record<String> tombstone = new MessageLog.Record<>("node-1", 1234L, null);
+
+        byte[] bytes = RecordFormat.encode(tombstone, Codec.utf8());
+        MessageLog.Record<String> read = RecordFormat.read(ByteBuffer.wrap(bytes), Codec.utf8());
+
+        assertThat(read.getVal(), is(nullValue()));
+        assertThat(read.isTombstone(), is(true));
+    }
+
+    @Test
+    void testCorruptAndTornRecordsAreRejected() {
+        byte[] bytes = RecordFormat.encode(record, Codec.utf8());
+        byte[] corrupt = bytes.clone();
+        corrupt[bytes.length - 6] ^= 1;
+        byte[] torn = Arrays.copyOf(bytes, bytes.length - 1);
+
+        assertThrows(IOException.class, () -> RecordFormat.read(ByteBuffer.wrap(corrupt), Codec.utf8()));
+        assertThrows(IOException.class, () -> RecordFormat.read(ByteBuffer.wrap(torn), Codec.utf8()));
+    }
+
+    @Test
+    void testLegacyJavaSerializedRecordsAreStillRead() throws IOException {
+        byte[] legacy = SerializationUtils.serialize(record);
+        byte[] current = RecordFormat.encode(record, Codec.utf8());
+        ByteBuffer buffer = ByteBuffer.allocate(legacy.length + current.length).put(legacy).put(current).flip();
+
+        assertThat(RecordFormat.read(buffer, Codec.utf8()), is(record));
+        assertThat(RecordFormat.read(buffer, Codec.utf8()), is(record));
+        assertThat(buffer.hasRemaining(), is(false));
+    }
+}
@@ -0,0 +1,82 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class RingBufferDispatcherTest {
+    private static final int PRODUCERS = 4;
+    private static final int EVENTS_PER_PRODUCER = 10_000;
+
+    @Test
+    void testSingleProducerDeliversInOrderAcrossLaps() throws InterruptedException {
+        for (RingBufferDispatcher.WaitStrategy waitStrategy : RingBufferDispatcher.WaitStrategy.values()) {
+            List<Integer> received = new CopyOnWriteArrayList<>();
+            RingBufferDispatcher dispatcher = new RingBufferDispatcher(4, RingBufferDispatcher.ClaimStrategy.SINGLE_PRODUCER, waitStrategy);
+            EventBus eventBus = new EventBus("ring-buffer", dispatcher);
+            eventBus.register(new Object() {
+                @Subscribe
+                public void onNewEvent(Integer i) {
+                    received.add(i);
+                }
+            });
+
+            for (int i = 0; i < 1000; i++) {
+                eventBus.post(i);
+            }
+            eventBus.stop();
+
+            assertThat(dispatcher.awaitTermination(5, TimeUnit.SECONDS), is(true));
+            assertThat(received, is(IntStream.range(0, 1000).boxed().collect(Collectors.toList())));
+            assertThat(dispatcher.getBacklog(), is(0L));
+        }
+    }
+
+    @Test
+    void testMultiProducerDeliversEveryEventInPerProducerOrder() throws InterruptedException {
+        for (RingBufferDispatcher.WaitStrategy waitStrategy : RingBufferDispatcher.WaitStrategy.values()) {
+            ConcurrentMap<String, List<Integer>> receivedByProducer = new ConcurrentHashMap<>();
+            RingBufferDispatcher dispatcher = new RingBufferDispatcher(64, RingBufferDispatcher.ClaimStrategy.MULTI_PRODUCER, waitStrategy);
+            EventBus eventBus = new EventBus("ring-buffer", dispatcher);
+            eventBus.register(new Object() {
+                @Subscribe
+                public void onNewEvent(String event) {
+                    String[] producerAndIndex = event.split(":");
+                    receivedByProducer
+                            .computeIfAbsent(producerAndIndex[0], k -> new CopyOnWriteArrayList<>())
+                            .add(Integer.parseInt(producerAndIndex[1]));
+                }
+            });
+
+            List<Thread> producers = Lists.newArrayList();
+            for (int p = 0; p < PRODUCERS; p++) {
+                String producer = "producer" + p;
+                producers.add(new Thread(() -> {
+                    for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+                        eventBus.post(producer + ":" + i);
+                    }
+                }));
+            }
+            producers.forEach(Thread::start);
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            eventBus.stop();
+
+            assertThat(dispatcher.awaitTermination(5, TimeUnit.SECONDS), is(true));
+            List<Integer> expected = IntStream.range(0, EVENTS_PER_PRODUCER).boxed().collect(Collectors.toList());
+            assertThat(receivedByProducer.size(), is(PRODUCERS));
+            receivedByProducer.values().forEach(received -> assertThat(received, is(expected)));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.trident.load_balancer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how posting scales with the number of posting threads, on a bus whose workers all drain one shared queue
+ * against a sharded bus with a queue per core. {@link #main} runs both from one posting thread up to one per core,
+ * doubling each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedEventBusBenchmark {
+    private final EventBus sharedQueueBus = new EventBus("shared-queue", Dispatcher.getInstance(Dispatcher.Type.ASYNC));
+    private final ShardedEventBus shardedBus = new ShardedEventBus("sharded");
+    private final Heartbeat heartbeat = HeartbeatExamples.VALID;
+
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            new Runner(new OptionsBuilder()
+                    .include(ShardedEventBusBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()
+            ).run();
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        sharedQueueBus.register(new PerThreadDispatcherBenchmark.HeartbeatSink(blackhole));
+        shardedBus.register(new PerThreadDispatcherBenchmark.HeartbeatSink(blackhole));
+    }
+
+    @TearDown
+    public void tearDown() {
+        sharedQueueBus.stop();
+        shardedBus.stop();
+    }
+
+    @Benchmark
+    public void postToSharedQueue() {
+        sharedQueueBus.post(heartbeat);
+    }
+
+    @Benchmark
+    public void postToShards() {
+        shardedBus.post(heartbeat);
+    }
+}
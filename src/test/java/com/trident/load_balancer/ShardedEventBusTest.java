@@ -0,0 +1,115 @@
+package com.trident.load_balancer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ShardedEventBusTest {
+    private final ShardedEventBus eventBus = new ShardedEventBus(
+            "sharded",
+            MoreExecutors.directExecutor(),
+            EventBus.LoggingHandler.INSTANCE,
+            4,
+            () -> Dispatcher.getInstance(Dispatcher.Type.PER_THREAD)
+    );
+
+    @Test
+    void testEventsPostedFromManyThreadsReachTheSharedSubscribersInPostingOrder() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        eventBus.register(listener);
+
+        ExecutorService posters = Executors.newFixedThreadPool(eventBus.getShardCount());
+        for (int poster = 0; poster < eventBus.getShardCount(); poster++) {
+            String prefix = "poster-" + poster + "-";
+            posters.execute(() -> IntStream.range(0, 100).forEach(i -> eventBus.post(prefix + i)));
+        }
+        posters.shutdown();
+        assertThat(posters.awaitTermination(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(listener.received, hasSize(400));
+        for (int poster = 0; poster < eventBus.getShardCount(); poster++) {
+            String prefix = "poster-" + poster + "-";
+            List<String> postedByPoster = listener.received.stream().filter(event -> event.startsWith(prefix)).collect(Collectors.toList());
+            assertThat(postedByPoster, is(IntStream.range(0, 100).mapToObj(i -> prefix + i).collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    void testRegistrationChangesReachShardsThatAlreadyPosted() {
+        eventBus.post("before");
+        RecordingListener listener = new RecordingListener();
+
+        eventBus.register(listener);
+        eventBus.post("registered");
+        eventBus.unregister(listener);
+        eventBus.post("unregistered");
+
+        assertThat(listener.received, contains("registered"));
+        assertThat(eventBus.getDeadEventStats(), contains(hasProperty("count", is(2L))));
+    }
+
+    @Test
+    void testEventsOfOneThreadStayInOrderWhenItsShardQueueIsFull() throws InterruptedException {
+        ShardedEventBus smallQueueBus = new ShardedEventBus(
+                "small-queue",
+                MoreExecutors.directExecutor(),
+                EventBus.LoggingHandler.INSTANCE,
+                1,
+                () -> ShardedEventBus.newShardDispatcher(2)
+        );
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        smallQueueBus.register(new Object() {
+            @Subscribe
+            public void onEvent(String event) throws InterruptedException {
+                if (event.equals("0")) {
+                    firstStarted.countDown();
+                    releaseFirst.await();
+                }
+                received.add(event);
+            }
+        });
+
+        // Given a poster that has filled its shard's queue while the first event is being delivered
+        Thread poster = new Thread(() -> IntStream.range(0, 10).forEach(i -> smallQueueBus.post(String.valueOf(i))));
+        poster.start();
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS), is(true));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (smallQueueBus.getStats().getDispatcherQueueDepth() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        // When the delivery finishes
+        releaseFirst.countDown();
+        poster.join(5_000);
+        smallQueueBus.stop();
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.size() < 10 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        // Then the events are delivered in the order they were posted
+        assertThat(received, is(IntStream.range(0, 10).mapToObj(String::valueOf).collect(Collectors.toList())));
+    }
+
+    public static class RecordingListener {
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        public void onEvent(String event) {
+            received.add(event);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.trident.load_balancer;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class SubscriberIndexTest {
+
+    @Test
+    void testIndexedListenerIsRegisteredFromItsIndex() {
+        assertThat(SubscriberIndexes.getSubscriberMethods(IndexedListener.class).isPresent(), is(true));
+        assertThat(SubscriberIndexes.getSubscriberMethods(IndexedListener.class).get(), hasSize(2));
+
+        EventBus eventBus = new EventBus("indexed");
+        IndexedListener listener = new IndexedListener();
+        eventBus.register(listener);
+        eventBus.post("event");
+        eventBus.post(42);
+
+        assertThat(listener.received, contains("string:event", "integer:42"));
+    }
+
+    @Test
+    void testIndexIncludesInheritedSubscriberMethods() {
+        EventBus eventBus = new EventBus("indexed");
+        IndexedListenerSubclass listener = new IndexedListenerSubclass();
+        eventBus.register(listener);
+        eventBus.post("event");
+        eventBus.post(1L);
+
+        assertThat(SubscriberIndexes.getSubscriberMethods(IndexedListenerSubclass.class).get(), hasSize(3));
+        assertThat(listener.received, contains("string:event", "long:1"));
+    }
+
+    @Test
+    void testIndexIncludesDefaultSubscriberMethodsOfInterfaces() {
+        EventBus eventBus = new EventBus("indexed");
+        IndexedListenerWithInterfaces listener = new IndexedListenerWithInterfaces();
+        eventBus.register(listener);
+        eventBus.post("event");
+        eventBus.post(1.5);
+        eventBus.post((short) 2);
+
+        assertThat(SubscriberIndexes.getSubscriberMethods(IndexedListenerWithInterfaces.class).get(), hasSize(2));
+        assertThat(listener.received, containsInAnyOrder("string:event", "double:1.5"));
+    }
+
+    @Test
+    void testIndexedMethodsMatchTheReflectiveOnes() {
+        SubscriptionRegistry registry = new SubscriptionRegistry(new EventBus("reflective"));
+        for (Class<?> listenerClass : List.of(
+                IndexedListener.class,
+                IndexedListenerSubclass.class,
+                IndexedListenerWithInterfaces.class
+        )) {
+            Set<Method> indexedMethods = SubscriberIndexes.getSubscriberMethods(listenerClass).get()
+                    .stream()
+                    .map(SubscriberMethod::getMethod)
+                    .collect(Collectors.toSet());
+
+            assertThat(indexedMethods, is(equalTo(ImmutableSet.copyOf(registry.getSubscribedMethods(listenerClass)))));
+        }
+    }
+
+    @Test
+    void testAnonymousListenerFallsBackToReflection() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        Object listener = new Object() {
+            @Subscribe
+            public void onString(String event) {
+                received.add(event);
+            }
+        };
+        assertThat(SubscriberIndexes.getSubscriberMethods(listener.getClass()).isPresent(), is(false));
+
+        EventBus eventBus = new EventBus("reflective");
+        eventBus.register(listener);
+        eventBus.post("event");
+
+        assertThat(received, contains("event"));
+    }
+
+    public static class IndexedListener {
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        public void onString(String event) {
+            received.add("string:" + event);
+        }
+
+        @Subscribe
+        public void onInteger(Integer event) {
+            received.add("integer:" + event);
+        }
+    }
+
+    public interface DefaultSubscriber {
+        List<String> received();
+
+        @Subscribe
+        default void onDouble(Double event) {
+            received().add("double:" + event);
+        }
+    }
+
+    public interface OverriddenSubscriber {
+        @Subscribe
+        void onShort(Short event);
+    }
+
+    public static class IndexedListenerWithInterfaces implements DefaultSubscriber, OverriddenSubscriber {
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Override
+        public List<String> received() {
+            return received;
+        }
+
+        @Subscribe
+        public void onString(String event) {
+            received.add("string:" + event);
+        }
+
+        // Not a subscriber: the reflective registry only sees this unannotated implementation
+        @Override
+        public void onShort(Short event) {
+            received.add("short:" + event);
+        }
+    }
+
+    public static class IndexedListenerSubclass extends IndexedListener {
+        @Subscribe
+        public void onLong(Long event) {
+            received.add("long:" + event);
+        }
+    }
+}
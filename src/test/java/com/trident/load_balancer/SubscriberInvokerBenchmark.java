@@ -0,0 +1,65 @@
+package com.trident.load_balancer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares delivering a heartbeat through the reflective invoker against the generated one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriberInvokerBenchmark {
+    private final EventBus eventBus = new EventBus("benchmark");
+    private final Heartbeat heartbeat = HeartbeatExamples.VALID;
+    private Subscriber reflectiveSubscriber;
+    private Subscriber generatedSubscriber;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SubscriberInvokerBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws NoSuchMethodException {
+        HeartbeatSink sink = new HeartbeatSink(blackhole);
+        Method method = HeartbeatSink.class.getMethod("onHeartbeat", Heartbeat.class);
+        reflectiveSubscriber = Subscriber.getInstance(eventBus, sink, method, SubscriberInvokers.reflectiveInvoker(method));
+        generatedSubscriber = Subscriber.getInstance(eventBus, sink, method, SubscriberInvokers.forMethod(method));
+    }
+
+    @Benchmark
+    public void reflectiveDelivery() {
+        reflectiveSubscriber.dispatchEvent(heartbeat);
+    }
+
+    @Benchmark
+    public void generatedDelivery() {
+        generatedSubscriber.dispatchEvent(heartbeat);
+    }
+
+    public static class HeartbeatSink {
+        private final Blackhole blackhole;
+
+        HeartbeatSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onHeartbeat(Heartbeat heartbeat) {
+            blackhole.consume(heartbeat);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.trident.load_balancer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers 10k listeners of a single event type on an empty bus, one at a time and all at once, and measures posting
+ * to them once they are registered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriberRegistrationBenchmark {
+    private static final int LISTENERS = 10_000;
+
+    private final Object[] listeners = new Object[LISTENERS];
+    private final EventBus populatedBus = new EventBus("populated");
+    private EventBus emptyBus;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SubscriberRegistrationBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < LISTENERS; i++) {
+            listeners[i] = new HeartbeatListener();
+        }
+        populatedBus.register(listeners);
+    }
+
+    @Setup(Level.Invocation)
+    public void createEmptyBus() {
+        emptyBus = new EventBus("empty");
+    }
+
+    @Benchmark
+    public EventBus registerOneByOne() {
+        for (Object listener : listeners) {
+            emptyBus.register(listener);
+        }
+        return emptyBus;
+    }
+
+    @Benchmark
+    public EventBus registerAllAtOnce() {
+        emptyBus.register(listeners);
+        return emptyBus;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void postToAll() {
+        populatedBus.post(HeartbeatExamples.VALID);
+    }
+
+    public static class HeartbeatListener {
+        @Subscribe
+        @ConcurrentEventsAllowed
+        public void onHeartbeat(Heartbeat heartbeat) {
+        }
+    }
+}
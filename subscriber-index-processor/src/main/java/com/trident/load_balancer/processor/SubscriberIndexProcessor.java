@@ -0,0 +1,230 @@
+package com.trident.load_balancer.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a {@code <Listener>$$SubscriberIndex} class next to every listener class declaring {@code @Subscribe}
+ * methods. The index hands the event bus each subscriber method together with an invoker that calls it directly, so
+ * registering the listener does not scan its methods and delivering to it does not go through reflection.
+ * <p>
+ * Only methods the reflective registry would pick up are indexed: public, non-static methods with one reference-typed
+ * parameter, found along the superclass chain, and default methods of the interfaces it implements that no class in
+ * the chain overrides. Listeners that cannot be named from generated code (anonymous, local or
+ * private classes) are skipped and keep using reflection.
+ */
+@SupportedAnnotationTypes(SubscriberIndexProcessor.SUBSCRIBE)
+public class SubscriberIndexProcessor extends AbstractProcessor {
+    static final String SUBSCRIBE = "com.trident.load_balancer.Subscribe";
+
+    private static final String INDEX_SUFFIX = "$$SubscriberIndex";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement subscribe = processingEnv.getElementUtils().getTypeElement(SUBSCRIBE);
+        if (subscribe == null) {
+            return false;
+        }
+        Set<TypeElement> listeners = new LinkedHashSet<>();
+        for (Element method : roundEnv.getElementsAnnotatedWith(subscribe)) {
+            Element enclosing = method.getEnclosingElement();
+            if (enclosing instanceof TypeElement && isIndexable((TypeElement) enclosing)) {
+                listeners.add((TypeElement) enclosing);
+            }
+        }
+        for (TypeElement listener : listeners) {
+            List<ExecutableElement> methods = getSubscriberMethods(listener, subscribe);
+            if (methods != null && !methods.isEmpty()) {
+                writeIndex(listener, methods);
+            }
+        }
+        return false;
+    }
+
+    private boolean isIndexable(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        for (Element current = type; current instanceof TypeElement; current = current.getEnclosingElement()) {
+            TypeElement currentType = (TypeElement) current;
+            NestingKind nestingKind = currentType.getNestingKind();
+            if (nestingKind == NestingKind.ANONYMOUS || nestingKind == NestingKind.LOCAL
+                    || currentType.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the subscriber methods of {@code listener}, its superclasses and their interfaces, or null if one of them
+     * cannot be referenced from the listener's package.
+     */
+    private List<ExecutableElement> getSubscriberMethods(TypeElement listener, TypeElement subscribe) {
+        Types types = processingEnv.getTypeUtils();
+        List<TypeElement> classes = new ArrayList<>();
+        Set<TypeElement> interfaces = new LinkedHashSet<>();
+        TypeElement current = listener;
+        while (current != null && !current.getQualifiedName().contentEquals(Object.class.getName())) {
+            classes.add(current);
+            addInterfaces(current, interfaces);
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+        }
+        List<ExecutableElement> methods = new ArrayList<>();
+        Set<String> signatures = new HashSet<>();
+        for (TypeElement type : classes) {
+            if (!addSubscriberMethods(type, listener, subscribe, classes, methods, signatures)) {
+                return null;
+            }
+        }
+        for (TypeElement type : interfaces) {
+            if (!addSubscriberMethods(type, listener, subscribe, classes, methods, signatures)) {
+                return null;
+            }
+        }
+        return methods;
+    }
+
+    private void addInterfaces(TypeElement type, Set<TypeElement> interfaces) {
+        for (TypeMirror implemented : type.getInterfaces()) {
+            TypeElement anInterface = (TypeElement) processingEnv.getTypeUtils().asElement(implemented);
+            if (interfaces.add(anInterface)) {
+                addInterfaces(anInterface, interfaces);
+            }
+        }
+    }
+
+    /**
+     * Adds the subscriber methods {@code type} declares whose signature has not been seen yet. Interface methods are
+     * only added if they are default methods no class in {@code classes} overrides, since the listener's class would
+     * otherwise report its own, unannotated, method.
+     *
+     * @return false if {@code type} declares subscriber methods but cannot be referenced from the listener's package.
+     */
+    private boolean addSubscriberMethods(TypeElement type, TypeElement listener, TypeElement subscribe,
+                                         List<TypeElement> classes, List<ExecutableElement> methods,
+                                         Set<String> signatures) {
+        PackageElement listenerPackage = processingEnv.getElementUtils().getPackageOf(listener);
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.METHOD || !isSubscriberMethod((ExecutableElement) member, subscribe)) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            if (type.getKind() == ElementKind.INTERFACE
+                    && (!method.isDefault() || isOverridden(method, listener, classes))) {
+                continue;
+            }
+            if (!isAccessibleFrom(type, listenerPackage)) {
+                return false;
+            }
+            String signature = method.getSimpleName() + "(" + erasure(method.getParameters().get(0).asType()) + ")";
+            if (signatures.add(signature)) {
+                methods.add(method);
+            }
+        }
+        return true;
+    }
+
+    private boolean isOverridden(ExecutableElement interfaceMethod, TypeElement listener, List<TypeElement> classes) {
+        Elements elements = processingEnv.getElementUtils();
+        for (TypeElement type : classes) {
+            for (Element member : type.getEnclosedElements()) {
+                if (member.getKind() == ElementKind.METHOD
+                        && member.getSimpleName().equals(interfaceMethod.getSimpleName())
+                        && elements.overrides((ExecutableElement) member, interfaceMethod, listener)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isSubscriberMethod(ExecutableElement method, TypeElement subscribe) {
+        Set<Modifier> modifiers = method.getModifiers();
+        return modifiers.contains(Modifier.PUBLIC)
+                && !modifiers.contains(Modifier.STATIC)
+                && method.getParameters().size() == 1
+                && !method.getParameters().get(0).asType().getKind().isPrimitive()
+                && method.getAnnotationMirrors()
+                .stream()
+                .anyMatch(mirror -> mirror.getAnnotationType().asElement().equals(subscribe));
+    }
+
+    private boolean isAccessibleFrom(TypeElement type, PackageElement fromPackage) {
+        Elements elements = processingEnv.getElementUtils();
+        return type.getModifiers().contains(Modifier.PUBLIC) || elements.getPackageOf(type).equals(fromPackage);
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private void writeIndex(TypeElement listener, List<ExecutableElement> methods) {
+        Elements elements = processingEnv.getElementUtils();
+        String packageName = elements.getPackageOf(listener).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(listener).toString();
+        String indexSimpleName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1) + INDEX_SUFFIX;
+        String indexName = packageName.isEmpty() ? indexSimpleName : packageName + "." + indexSimpleName;
+        String listenerName = erasure(listener.asType());
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(indexName, listener);
+            try (PrintWriter out = new PrintWriter(sourceFile.openWriter())) {
+                if (!packageName.isEmpty()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+                out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+                out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+                out.println("public final class " + indexSimpleName + " implements com.trident.load_balancer.SubscriberIndex {");
+                out.println("    @Override");
+                out.println("    public java.util.List<com.trident.load_balancer.SubscriberMethod> getSubscriberMethods() throws ReflectiveOperationException {");
+                out.println("        return java.util.List.of(");
+                for (int i = 0; i < methods.size(); i++) {
+                    writeSubscriberMethod(out, listenerName, methods.get(i));
+                    out.println(i == methods.size() - 1 ? "" : ",");
+                }
+                out.println("        );");
+                out.println("    }");
+                out.println("}");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR,
+                    "Could not write subscriber index " + indexName + ": " + e.getMessage(),
+                    listener
+            );
+        }
+    }
+
+    private void writeSubscriberMethod(PrintWriter out, String listenerName, ExecutableElement method) {
+        String declaringName = erasure(method.getEnclosingElement().asType());
+        String parameterName = erasure(method.getParameters().get(0).asType());
+        String methodName = method.getSimpleName().toString();
+        out.println("                new com.trident.load_balancer.SubscriberMethod(");
+        out.println("                        " + declaringName + ".class.getMethod(\"" + methodName + "\", " + parameterName + ".class),");
+        out.println("                        (target, event) -> ((" + listenerName + ") target)." + methodName + "((" + parameterName + ") event)");
+        out.print("                )");
+    }
+}